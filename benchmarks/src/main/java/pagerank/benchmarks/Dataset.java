@@ -0,0 +1,108 @@
+package pagerank.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The input of a benchmark, either the files shipped with the project or a seeded
+ * synthetic workload written to a temporary directory.
+ *
+ *   -p graph=shipped    transition.txt, doc_topics.txt, user-topic-distro.txt and
+ *                       indri-lists/2-1.results.txt from dataDir; 81433 nodes
+ *   -p graph=synthetic  a workload written by WorkloadGenerator, with the model of
+ *                       -p generator=rmat|powerlaw and the given nodes, mean degree
+ *                       and seed, a topic distribution for user-query 1-1 and a
+ *                       result list of 500 documents
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+  static final int SHIPPED_NODES = 81433;
+
+  @Param({ "shipped", "synthetic" })
+  public String graph;
+
+  // the project directory, for graph=shipped
+  @Param({ ".." })
+  public String dataDir;
+
+  @Param({ "100000" })
+  public int nodes;
+
+  // the mean out-degree of the synthetic graph
+  @Param({ "12" })
+  public int degree;
+
+  @Param({ "42" })
+  public long seed;
+
+  // the model of the synthetic graph, rmat or powerlaw, see WorkloadGenerator. not
+  // named model, which ReRankBenchmark uses and JMH parameters share one namespace
+  @Param({ "rmat" })
+  public String generator;
+
+  // the topics of the synthetic documents, as many as the shipped ones
+  static final int SYNTHETIC_TOPICS = 12;
+
+  private File tempDir;
+
+  int dimension;
+  String transitionFile;
+  String docTopicsFile;
+  String topicDistFile;
+  String resultFile;
+  String userqueryid;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    if ("shipped".equals(this.graph)) {
+      File dir = new File(this.dataDir);
+      this.dimension = SHIPPED_NODES;
+      this.transitionFile = new File(dir, "transition.txt").getPath();
+      this.docTopicsFile = new File(dir, "doc_topics.txt").getPath();
+      this.topicDistFile = new File(dir, "user-topic-distro.txt").getPath();
+      this.resultFile = new File(dir, "indri-lists/2-1.results.txt").getPath();
+      this.userqueryid = "2-1";
+      if (!new File(this.transitionFile).isFile()) {
+        throw new IOException("No transition.txt in " + dir.getAbsolutePath() + ", set -p dataDir=<project directory>");
+      }
+      return;
+    }
+    if (!"synthetic".equals(this.graph)) {
+      throw new IllegalArgumentException("Unknown graph " + this.graph + ", expected shipped or synthetic");
+    }
+
+    this.tempDir = Files.createTempDirectory("pagerank-bench").toFile();
+    this.dimension = this.nodes;
+    this.transitionFile = new File(this.tempDir, "transition.txt").getPath();
+    this.docTopicsFile = new File(this.tempDir, "doc_topics.txt").getPath();
+    this.topicDistFile = new File(this.tempDir, "user-topic-distro.txt").getPath();
+    this.resultFile = new File(this.tempDir, "indri-lists/1-1.results.txt").getPath();
+    this.userqueryid = "1-1";
+
+    Engines.generate(this.tempDir, this.nodes, (long) this.nodes * this.degree, this.seed, this.generator, SYNTHETIC_TOPICS, 500);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.tempDir == null) return;
+    delete(this.tempDir);
+  }
+
+  private static void delete(File f) {
+    File[] files = f.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+}
@@ -0,0 +1,391 @@
+package pagerank.benchmarks;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calls into the engines in ../src. Those classes live in the default package, which a
+ * named package cannot import, so they are bound once through method handles; the
+ * protected iteration methods are opened the same way. A bound handle costs about as
+ * much as a virtual call, well below the operations measured here.
+ */
+final class Engines {
+  private static final MethodHandle NEW_GPR;
+  private static final MethodHandle NEW_TSPR;
+  private static final MethodHandle RUN;
+  private static final MethodHandle CLOSE;
+  private static final MethodHandle GPR_RUN_ITERATION;
+  private static final MethodHandle GPR_IS_CONVERGED;
+  private static final MethodHandle TSPR_RUN_ITERATION;
+  private static final MethodHandle TSPR_IS_CONVERGED;
+  private static final MethodHandle GPR_VALUES;
+  private static final MethodHandle TSPR_VALUES;
+
+  private static final MethodHandle READ_TRANSITION_MATRIX;
+  private static final MethodHandle TRANSPOSE_MATRIX;
+  private static final MethodHandle READ_SPARSE_GRAPH;
+  private static final MethodHandle READ_TOPIC_DIST;
+  private static final MethodHandle READ_RESULT_LIST;
+  private static final MethodHandle NEW_TOKENIZER;
+
+  // the tokenizer is called once per field, so its handles take an Object receiver and
+  // are invoked exactly, which the JIT inlines like a direct call
+  private static final MethodHandle TOKENIZER_RESET;
+  private static final MethodHandle TOKENIZER_CLOSE;
+  private static final MethodHandle HAS_NEXT;
+  private static final MethodHandle AT_END_OF_LINE;
+  private static final MethodHandle SKIP_LINE;
+  private static final MethodHandle SKIP_TOKEN;
+  private static final MethodHandle SKIP_CHAR;
+  private static final MethodHandle NEXT_INT;
+  private static final MethodHandle NEXT_DOUBLE;
+
+  private static final MethodHandle NEW_GPR_RERANKER;
+  private static final MethodHandle NEW_TSPR_RERANKER;
+  private static final MethodHandle RERANK;
+  private static final MethodHandle NEW_CANDIDATE_LIST;
+  private static final MethodHandle CANDIDATE_ADD;
+  private static final MethodHandle SCORE;
+  private static final MethodHandle TOP;
+
+  private static final MethodHandle NEW_GENERATOR;
+  private static final MethodHandle SET_POWER_LAW;
+  private static final MethodHandle WRITE_EDGE_LIST;
+  private static final MethodHandle WRITE_DOC_TOPICS;
+  private static final MethodHandle WRITE_TOPIC_DIST;
+  private static final MethodHandle WRITE_RESULT_LISTS;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      Class<?> gpr = Class.forName("GlobalPageRank");
+      Class<?> tspr = Class.forName("TopicSensitivePageRank");
+      Class<?> engine = Class.forName("AbstractPageRank");
+      Class<?> utilities = Class.forName("Utilities");
+      Class<?> tokenizer = Class.forName("ByteTokenizer");
+      Class<?> vector = Class.forName("RankVector");
+      Class<?> reranker = Class.forName("ReRanker");
+
+      NEW_GPR = lookup.unreflectConstructor(gpr.getConstructor(int.class, double.class, String.class, int.class));
+      NEW_TSPR = lookup.unreflectConstructor(tspr.getConstructor(int.class, int.class, double.class, double.class,
+          String.class, String.class, int.class, boolean.class));
+      RUN = lookup.unreflect(engine.getMethod("run"));
+      CLOSE = lookup.unreflect(engine.getMethod("close"));
+      GPR_RUN_ITERATION = open(lookup, gpr, "runIteration");
+      GPR_IS_CONVERGED = open(lookup, gpr, "isConverged");
+      TSPR_RUN_ITERATION = open(lookup, tspr, "runIteration");
+      TSPR_IS_CONVERGED = open(lookup, tspr, "isConverged");
+      GPR_VALUES = lookup.unreflect(gpr.getMethod("getPageRankValues"));
+      TSPR_VALUES = lookup.unreflect(tspr.getMethod("getTopicPageRankValues"));
+
+      READ_TRANSITION_MATRIX = lookup.unreflect(utilities.getMethod("readTransitionMatrix", String.class));
+      TRANSPOSE_MATRIX = lookup.unreflect(utilities.getMethod("transposeMatrix", Map.class));
+      READ_SPARSE_GRAPH = lookup.unreflect(utilities.getMethod("readSparseGraph", String.class, int.class, int.class));
+      READ_TOPIC_DIST = lookup.unreflect(utilities.getMethod("readTopicDist", String.class));
+      READ_RESULT_LIST = lookup.unreflect(utilities.getMethod("readResultList", File.class, tokenizer));
+      NEW_TOKENIZER = lookup.unreflectConstructor(tokenizer.getConstructor());
+      TOKENIZER_RESET = exact(lookup, tokenizer, "reset", InputStream.class);
+      TOKENIZER_CLOSE = exact(lookup, tokenizer, "close");
+      HAS_NEXT = exact(lookup, tokenizer, "hasNext");
+      AT_END_OF_LINE = exact(lookup, tokenizer, "atEndOfLine");
+      SKIP_LINE = exact(lookup, tokenizer, "skipLine");
+      SKIP_TOKEN = exact(lookup, tokenizer, "skipToken");
+      SKIP_CHAR = exact(lookup, tokenizer, "skipChar", char.class);
+      NEXT_INT = exact(lookup, tokenizer, "nextInt");
+      NEXT_DOUBLE = exact(lookup, tokenizer, "nextDouble");
+
+      NEW_GPR_RERANKER = lookup.unreflectConstructor(reranker.getConstructor(vector));
+      NEW_TSPR_RERANKER = lookup.unreflectConstructor(reranker.getConstructor(List.class, Map.class));
+      RERANK = lookup.unreflect(reranker.getMethod("rerank", String.class, Map.class, int.class));
+      Class<?> candidates = Class.forName("CandidateList");
+      NEW_CANDIDATE_LIST = lookup.unreflectConstructor(candidates.getConstructor());
+      CANDIDATE_ADD = lookup.unreflect(candidates.getMethod("add", int.class, double.class));
+      SCORE = lookup.unreflect(reranker.getMethod("score", String.class, candidates, int.class));
+      TOP = lookup.unreflect(candidates.getMethod("top", int.class, int.class));
+
+      Class<?> generator = Class.forName("WorkloadGenerator");
+      NEW_GENERATOR = lookup.unreflectConstructor(generator.getConstructor(int.class, long.class, long.class));
+      SET_POWER_LAW = lookup.unreflect(generator.getMethod("setPowerLaw", double.class));
+      WRITE_EDGE_LIST = lookup.unreflect(generator.getMethod("writeEdgeList", String.class));
+      WRITE_DOC_TOPICS = lookup.unreflect(generator.getMethod("writeDocTopics", String.class, int.class));
+      WRITE_TOPIC_DIST = lookup.unreflect(generator.getMethod("writeTopicDist", String.class, int.class, int.class, int.class, long.class));
+      WRITE_RESULT_LISTS = lookup.unreflect(generator.getMethod("writeResultLists", File.class, int.class, int.class, int.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private Engines() {
+  }
+
+  private static MethodHandle open(MethodHandles.Lookup lookup, Class<?> c, String name) throws ReflectiveOperationException {
+    Method m = c.getDeclaredMethod(name);
+    m.setAccessible(true);
+    return lookup.unreflect(m);
+  }
+
+  /**
+   * a handle of a public method that takes its receiver as an Object and drops what it
+   * returns if that is an object, so it can be invoked exactly
+   */
+  private static MethodHandle exact(MethodHandles.Lookup lookup, Class<?> c, String name, Class<?>... parameters) throws ReflectiveOperationException {
+    MethodHandle res = lookup.unreflect(c.getMethod(name, parameters));
+    MethodType type = res.type().changeParameterType(0, Object.class);
+    if (!type.returnType().isPrimitive()) type = type.changeReturnType(void.class);
+    return res.asType(type);
+  }
+
+  static Object newGlobalPageRank(int d, double dp, String transitionFile, int threads) {
+    try {
+      return NEW_GPR.invoke(d, dp, transitionFile, threads);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static Object newTopicSensitivePageRank(int d, int topics, String transitionFile, String docTopicsFile, int threads, boolean blocked) {
+    try {
+      return NEW_TSPR.invoke(d, topics, 0.75, 0.15, transitionFile, docTopicsFile, threads, blocked);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void run(Object engine) {
+    try {
+      RUN.invoke(engine);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void close(Object engine) {
+    try {
+      CLOSE.invoke(engine);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void runIteration(Object engine) {
+    try {
+      if (GPR_RUN_ITERATION.type().parameterType(0).isInstance(engine)) {
+        GPR_RUN_ITERATION.invoke(engine);
+      } else {
+        TSPR_RUN_ITERATION.invoke(engine);
+      }
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static boolean isConverged(Object engine) {
+    try {
+      if (GPR_IS_CONVERGED.type().parameterType(0).isInstance(engine)) {
+        return (boolean) GPR_IS_CONVERGED.invoke(engine);
+      }
+      return (boolean) TSPR_IS_CONVERGED.invoke(engine);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static Object newReRanker(Object engine, Map<String, List<Double>> dist) {
+    try {
+      if (GPR_VALUES.type().parameterType(0).isInstance(engine)) {
+        return NEW_GPR_RERANKER.invoke(GPR_VALUES.invoke(engine));
+      }
+      return NEW_TSPR_RERANKER.invoke((List<?>) TSPR_VALUES.invoke(engine), dist);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static List<?> rerank(Object reranker, String userqueryid, Map<Integer, Double> result, int method) {
+    try {
+      return (List<?>) RERANK.invoke(reranker, userqueryid, result, method);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static Object newCandidateList(Map<Integer, Double> result) {
+    try {
+      Object res = NEW_CANDIDATE_LIST.invoke();
+      for (Map.Entry<Integer, Double> entry : result.entrySet()) {
+        CANDIDATE_ADD.invoke(res, (int) entry.getKey(), (double) entry.getValue());
+      }
+      return res;
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static int[] score(Object reranker, String userqueryid, Object candidates, int method, int k) {
+    try {
+      SCORE.invoke(reranker, userqueryid, candidates, method);
+      return (int[]) TOP.invoke(candidates, 0, k);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<Integer, Set<Integer>> readTransitionMatrix(String fp) {
+    try {
+      return (Map<Integer, Set<Integer>>) READ_TRANSITION_MATRIX.invoke(fp);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<Integer, Set<Integer>> transposeMatrix(Map<Integer, Set<Integer>> matrix) {
+    try {
+      return (Map<Integer, Set<Integer>>) TRANSPOSE_MATRIX.invoke(matrix);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static Object readSparseGraph(String fp, int d, int threads) {
+    try {
+      return READ_SPARSE_GRAPH.invoke(fp, d, threads);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<String, List<Double>> readTopicDist(String fp) {
+    try {
+      return (Map<String, List<Double>>) READ_TOPIC_DIST.invoke(fp);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<Integer, Double> readResultList(File f) {
+    try {
+      return (Map<Integer, Double>) READ_RESULT_LIST.invoke(f, NEW_TOKENIZER.invoke());
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static Object newTokenizer() {
+    try {
+      return NEW_TOKENIZER.invoke();
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void reset(Object tokenizer, InputStream in) {
+    try {
+      TOKENIZER_RESET.invokeExact(tokenizer, in);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void closeTokenizer(Object tokenizer) {
+    try {
+      TOKENIZER_CLOSE.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static boolean hasNext(Object tokenizer) {
+    try {
+      return (boolean) HAS_NEXT.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static boolean atEndOfLine(Object tokenizer) {
+    try {
+      return (boolean) AT_END_OF_LINE.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void skipLine(Object tokenizer) {
+    try {
+      SKIP_LINE.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void skipToken(Object tokenizer) {
+    try {
+      SKIP_TOKEN.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static void skipChar(Object tokenizer, char c) {
+    try {
+      SKIP_CHAR.invokeExact(tokenizer, c);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static int nextInt(Object tokenizer) {
+    try {
+      return (int) NEXT_INT.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  static double nextDouble(Object tokenizer) {
+    try {
+      return (double) NEXT_DOUBLE.invokeExact(tokenizer);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  /**
+   * write a synthetic workload with WorkloadGenerator: transition.txt, doc_topics.txt,
+   * user-topic-distro.txt and the result list indri-lists/1-1.results.txt
+   * @param model rmat or powerlaw
+   */
+  static void generate(File dir, int nodes, long edges, long seed, String model, int topics, int results) {
+    try {
+      Object generator = NEW_GENERATOR.invoke(nodes, edges, seed);
+      if ("powerlaw".equals(model)) {
+        SET_POWER_LAW.invoke(generator, 2.5);
+      } else if (!"rmat".equals(model)) {
+        throw new IllegalArgumentException("Unknown model " + model + ", expected rmat or powerlaw");
+      }
+      WRITE_EDGE_LIST.invoke(generator, new File(dir, "transition.txt").getPath());
+      WRITE_DOC_TOPICS.invoke(generator, new File(dir, "doc_topics.txt").getPath(), topics);
+      WRITE_TOPIC_DIST.invoke(generator, new File(dir, "user-topic-distro.txt").getPath(), topics, 1, 1, 0x75736572L);
+      WRITE_RESULT_LISTS.invoke(generator, new File(dir, "indri-lists"), 1, 1, results);
+    } catch (Throwable e) {
+      throw propagate(e);
+    }
+  }
+
+  private static RuntimeException propagate(Throwable e) {
+    if (e instanceof RuntimeException) return (RuntimeException) e;
+    if (e instanceof Error) throw (Error) e;
+    return new IllegalStateException(e);
+  }
+}
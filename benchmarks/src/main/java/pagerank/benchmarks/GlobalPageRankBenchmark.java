@@ -0,0 +1,59 @@
+package pagerank.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One GPR iteration and one convergence check. An iteration costs the same whatever
+ * the state of the vector, so the engine is not reset between invocations; the check
+ * is measured after the first iteration, when it does not converge and changes nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class GlobalPageRankBenchmark {
+  @Param({ "1" })
+  public int threads;
+
+  private Object gpr;
+
+  @Setup(Level.Trial)
+  public void setup(Dataset data) {
+    this.gpr = Engines.newGlobalPageRank(data.dimension, 0.85, data.transitionFile, this.threads);
+    Engines.runIteration(this.gpr);
+    if (Engines.isConverged(this.gpr)) {
+      throw new IllegalStateException("Converged after one iteration, the check would not be measured");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Engines.close(this.gpr);
+  }
+
+  @Benchmark
+  public void runIteration() {
+    Engines.runIteration(this.gpr);
+  }
+
+  @Benchmark
+  public boolean isConverged() {
+    return Engines.isConverged(this.gpr);
+  }
+}
@@ -0,0 +1,55 @@
+package pagerank.benchmarks;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the transition matrix: the map-of-sets reader and transpose, and the
+ * SparseGraph loader the engines use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class LoadBenchmark {
+  @Param({ "1" })
+  public int threads;
+
+  private Map<Integer, Set<Integer>> matrix;
+
+  @Setup(Level.Trial)
+  public void setup(Dataset data) {
+    this.matrix = Engines.readTransitionMatrix(data.transitionFile);
+  }
+
+  @Benchmark
+  public Object readTransitionMatrix(Dataset data) {
+    return Engines.readTransitionMatrix(data.transitionFile);
+  }
+
+  @Benchmark
+  public Object transposeMatrix() {
+    return Engines.transposeMatrix(this.matrix);
+  }
+
+  @Benchmark
+  public Object readSparseGraph(Dataset data) {
+    return Engines.readSparseGraph(data.transitionFile, data.dimension, this.threads);
+  }
+}
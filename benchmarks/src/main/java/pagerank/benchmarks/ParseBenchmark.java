@@ -0,0 +1,138 @@
+package pagerank.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing one data file with ByteTokenizer, and with the BufferedReader / String.split /
+ * parseInt loop the loaders used before it. Each file is parsed into a checksum only, so
+ * the time is that of parsing alone; the size of the file is printed at setup, for MB/s.
+ *
+ *   -p input=transition    the edge list
+ *   -p input=doc_topics    doc_topics.txt
+ *   -p input=topic_dist    user-topic-distro.txt
+ *   -p input=result_list   one result list
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ParseBenchmark {
+  @Param({ "transition", "doc_topics", "topic_dist", "result_list" })
+  public String input;
+
+  @Param({ "split", "tokenizer" })
+  public String parser;
+
+  private File file;
+
+  private Object tokenizer;
+
+  @Setup(Level.Trial)
+  public void setup(Dataset data) throws IOException {
+    if ("transition".equals(this.input)) {
+      this.file = new File(data.transitionFile);
+    } else if ("doc_topics".equals(this.input)) {
+      this.file = new File(data.docTopicsFile);
+    } else if ("topic_dist".equals(this.input)) {
+      this.file = new File(data.topicDistFile);
+    } else if ("result_list".equals(this.input)) {
+      this.file = new File(data.resultFile);
+    } else {
+      throw new IllegalArgumentException("Unknown input " + this.input + ", expected transition, doc_topics, topic_dist or result_list");
+    }
+    this.tokenizer = Engines.newTokenizer();
+
+    // both parsers must read the same numbers for the comparison to mean anything
+    double split = parseWithSplit(this.file, this.input);
+    double tokenized = parseWithTokenizer(this.file, this.input, this.tokenizer);
+    if (split != tokenized) {
+      throw new IllegalStateException(this.file + ": the parsers disagree, " + split + " vs " + tokenized);
+    }
+    System.out.println(this.file + ": " + this.file.length() + " bytes");
+  }
+
+  @Benchmark
+  public double parse() throws IOException {
+    if ("split".equals(this.parser)) {
+      return parseWithSplit(this.file, this.input);
+    }
+    return parseWithTokenizer(this.file, this.input, this.tokenizer);
+  }
+
+  private static double parseWithSplit(File f, String input) throws IOException {
+    double sum = 0.0;
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+    try {
+      String line = null;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ");
+        if ("topic_dist".equals(input)) {
+          sum += Integer.parseInt(fields[0]) + Integer.parseInt(fields[1]);
+          for (int i = 2; i < fields.length; i++) {
+            sum += Double.parseDouble(fields[i].split(":")[1]);
+          }
+        } else if ("result_list".equals(input)) {
+          sum += Integer.parseInt(fields[2]) + Double.parseDouble(fields[4]);
+        } else {
+          sum += Integer.parseInt(fields[0]) + Integer.parseInt(fields[1]);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return sum;
+  }
+
+  private static double parseWithTokenizer(File f, String input, Object tokenizer) {
+    double sum = 0.0;
+    try {
+      Engines.reset(tokenizer, new FileInputStream(f));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    boolean topicDist = "topic_dist".equals(input);
+    boolean resultList = "result_list".equals(input);
+    while (Engines.hasNext(tokenizer)) {
+      if (topicDist) {
+        sum += Engines.nextInt(tokenizer) + Engines.nextInt(tokenizer);
+        while (!Engines.atEndOfLine(tokenizer)) {
+          Engines.nextInt(tokenizer);
+          Engines.skipChar(tokenizer, ':');
+          sum += Engines.nextDouble(tokenizer);
+        }
+      } else if (resultList) {
+        Engines.skipToken(tokenizer);
+        Engines.skipToken(tokenizer);
+        int docid = Engines.nextInt(tokenizer);
+        Engines.skipToken(tokenizer);
+        sum += docid + Engines.nextDouble(tokenizer);
+        Engines.skipLine(tokenizer);
+      } else {
+        sum += Engines.nextInt(tokenizer) + Engines.nextInt(tokenizer);
+        Engines.skipLine(tokenizer);
+      }
+    }
+    Engines.closeTokenizer(tokenizer);
+    return sum;
+  }
+}
@@ -0,0 +1,66 @@
+package pagerank.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One TSPR iteration and one convergence check by topic count and vector layout. Only
+ * the check freezes converged topics, so repeated iterations keep every topic active;
+ * the check is measured after the first iteration, when no topic has converged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class TopicSensitivePageRankBenchmark {
+  @Param({ "1", "4", "12" })
+  public int topics;
+
+  // node-major vectors instead of topic-major ones
+  @Param({ "false", "true" })
+  public boolean blocked;
+
+  @Param({ "1" })
+  public int threads;
+
+  private Object tspr;
+
+  @Setup(Level.Trial)
+  public void setup(Dataset data) {
+    this.tspr = Engines.newTopicSensitivePageRank(data.dimension, this.topics, data.transitionFile, data.docTopicsFile, this.threads, this.blocked);
+    Engines.runIteration(this.tspr);
+    if (Engines.isConverged(this.tspr)) {
+      throw new IllegalStateException("Converged after one iteration, the check would not be measured");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Engines.close(this.tspr);
+  }
+
+  @Benchmark
+  public void runIteration() {
+    Engines.runIteration(this.tspr);
+  }
+
+  @Benchmark
+  public boolean isConverged() {
+    return Engines.isConverged(this.tspr);
+  }
+}
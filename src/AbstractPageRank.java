@@ -1,79 +1,397 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.*;
 import java.util.Map.Entry;
 
-public abstract class AbstractPageRank {
+public abstract class AbstractPageRank implements Closeable {
   // the number of nodes in the graph
   protected int dimension;
   
-  // the transition matrix
-  protected Map<Integer, Set<Integer>> transitionMatrix;
+  // the transition matrix and its transposition
+  protected SparseGraph graph;
   
-  // the transposition of the transition matrix
-  protected Map<Integer, Set<Integer>> transposedTransitionMatrix;
+  // runs the sweeps over the graph on one or more threads
+  protected ParallelSweep sweep;
+  
+  // the iteration schemes the subclasses implement in runIteration()
+  public enum Solver {
+    // power iteration, every score of a round is computed from the previous round
+    JACOBI,
+    // scores computed earlier in the same sweep are used right away
+    GAUSS_SEIDEL
+  }
+  
+  protected Solver solver = Solver.JACOBI;
+  
+  // the successive over-relaxation factor of the Gauss-Seidel solver, 1 for none
+  protected double relaxation = 1.0;
+  
+  // the extrapolations of the power iteration, see Extrapolator
+  public enum Extrapolation {
+    NONE,
+    AITKEN,
+    QUADRATIC
+  }
+  
+  protected Extrapolation extrapolation = Extrapolation.NONE;
+  
+  // the iterations between two extrapolations
+  protected int extrapolationPeriod = 10;
+  
+  // created by the first iteration that extrapolates
+  private Extrapolator extrapolator;
   
   public AbstractPageRank(int d, String mfp) {
+    this(d, mfp, 1);
+  }
+  
+  public AbstractPageRank(int d, String mfp, int threads) {
     this.dimension = d;
-    this.transitionMatrix = Utilities.readTransitionMatrix(mfp);
-    this.transposedTransitionMatrix = Utilities.transposeMatrix(this.transitionMatrix);
+    this.graph = Utilities.readSparseGraph(mfp, d, threads);
+    this.sweep = new ParallelSweep(this.graph, threads);
+  }
+  
+  /**
+   * choose the iteration scheme used by run()
+   * @param s
+   * @param omega the over-relaxation factor in (0, 2), only used by GAUSS_SEIDEL
+   */
+  public void setSolver(Solver s, double omega) {
+    if (omega <= 0.0 || omega >= 2.0) {
+      throw new IllegalArgumentException("Relaxation factor must be in (0, 2): " + omega);
+    }
+    this.solver = s;
+    this.relaxation = omega;
+    this.extrapolator = null;
+  }
+  
+  /**
+   * choose the extrapolation applied every period iterations, only used by JACOBI
+   * @param e
+   * @param period at least 3 for AITKEN and 4 for QUADRATIC
+   */
+  public void setExtrapolation(Extrapolation e, int period) {
+    int depth = e == Extrapolation.QUADRATIC ? 3 : 2;
+    if (e != Extrapolation.NONE && period <= depth) {
+      throw new IllegalArgumentException("The period of " + e + " extrapolation must be at least " + (depth + 1) + ": " + period);
+    }
+    this.extrapolation = e;
+    this.extrapolationPeriod = period;
+    this.extrapolator = null;
+  }
+  
+  /**
+   * the extrapolator of the current settings, or null if the iterations do not extrapolate
+   * @param vectors
+   * @param vectorStride the distance between two vectors in a buffer
+   * @param nodeStride the distance between two nodes of a vector
+   * @return
+   */
+  protected Extrapolator getExtrapolator(int vectors, int vectorStride, int nodeStride) {
+    if (this.extrapolation == Extrapolation.NONE || this.solver != Solver.JACOBI) return null;
+    
+    if (this.extrapolator == null) {
+      this.extrapolator = new Extrapolator(this.extrapolation, this.extrapolationPeriod, this.sweep, vectors, this.dimension, vectorStride, nodeStride);
+    }
+    return this.extrapolator;
+  }
+  
+  /**
+   * forget the iterates the extrapolation has seen, after the vectors were replaced
+   */
+  protected void resetExtrapolation() {
+    if (this.extrapolator != null) this.extrapolator.reset();
+  }
+
+  /**
+   * @return the extrapolations made so far with the current settings
+   */
+  public int getExtrapolations() {
+    int res = 0;
+    for (int v = 0; v < this.getVectorCount(); v++)
+      res += this.getExtrapolations(v);
+    return res;
+  }
+
+  /**
+   * @param vector
+   * @return the extrapolations of one vector made so far with the current settings
+   */
+  public int getExtrapolations(int vector) {
+    return this.extrapolator == null ? 0 : this.extrapolator.getExtrapolations(vector);
+  }
+
+  /**
+   * @return the extrapolations taken back because they made the residual larger
+   */
+  public int getRejectedExtrapolations() {
+    int res = 0;
+    for (int v = 0; v < this.getVectorCount(); v++)
+      res += this.getRejectedExtrapolations(v);
+    return res;
+  }
+
+  /**
+   * @param vector
+   * @return the extrapolations of one vector taken back
+   */
+  public int getRejectedExtrapolations(int vector) {
+    return this.extrapolator == null ? 0 : this.extrapolator.getRejections(vector);
+  }
+  
+  // decides when run() stops, from the residuals the iterations compute
+  protected ConvergenceCriterion criterion = ConvergenceCriterion.Tolerance.DEFAULT;
+  
+  // run() gives up after this many iterations or this many milliseconds, 0 for no time limit
+  private int maxIterations = 1000;
+  
+  private long timeBudget = 0;
+  
+  /**
+   * choose when run() stops
+   * @param c
+   * @param maxIter the most iterations to run
+   * @param budgetMillis the time after which no further iteration is started, 0 for none
+   */
+  public void setConvergence(ConvergenceCriterion c, int maxIter, long budgetMillis) {
+    if (maxIter < 1 || budgetMillis < 0) {
+      throw new IllegalArgumentException("Invalid iteration limits: " + maxIter + ", " + budgetMillis);
+    }
+    this.criterion = c;
+    this.maxIterations = maxIter;
+    this.timeBudget = budgetMillis;
+  }
+  
+  /**
+   * choose when run() stops from the command line options -criterion
+   * <scaled_l2|l1|linf|relative>, -tolerance, -max-iterations and -time-budget <ms>;
+   * the options that are missing keep their defaults
+   * @param options
+   */
+  public void setConvergence(Map<String, String> options) {
+    ConvergenceCriterion c = this.criterion;
+    if (options.containsKey("criterion") || options.containsKey("tolerance")) {
+      ConvergenceCriterion.Tolerance.Norm norm = options.containsKey("criterion")
+          ? ConvergenceCriterion.Tolerance.Norm.valueOf(options.get("criterion").toUpperCase())
+          : ConvergenceCriterion.Tolerance.DEFAULT.getNorm();
+      double tolerance = options.containsKey("tolerance") ? Double.parseDouble(options.get("tolerance"))
+          : ConvergenceCriterion.Tolerance.DEFAULT.getTolerance();
+      c = new ConvergenceCriterion.Tolerance(norm, tolerance);
+    }
+    int maxIter = options.containsKey("max-iterations") ? Integer.parseInt(options.get("max-iterations")) : this.maxIterations;
+    long budget = options.containsKey("time-budget") ? Long.parseLong(options.get("time-budget")) : this.timeBudget;
+    this.setConvergence(c, maxIter, budget);
+  }
+  
+  // the number of iterations of the last run()
+  private int iterations;
+  
+  // whether the last run() converged rather than running out of iterations or time
+  private boolean converged;
+  
+  // notified after every iteration and at the end of every run()
+  private final List<IterationObserver> observers = new ArrayList<IterationObserver>();
+  
+  public void addObserver(IterationObserver o) {
+    this.observers.add(o);
+  }
+  
+  public void addObservers(Collection<IterationObserver> os) {
+    this.observers.addAll(os);
   }
   
   // run the abstract iteration procedure
   public final void run() {
-    int count = 1;
-    while(!this.isConverged()) {
-      System.out.println("Iteration " + count);
-      this.runIteration();
+    long starttime = System.nanoTime();
+    long deadline = this.timeBudget > 0 ? System.currentTimeMillis() + this.timeBudget : Long.MAX_VALUE;
+    boolean observed = !this.observers.isEmpty();
+    int count = 0;
+    while(!(this.converged = this.isConverged())) {
+      if (count >= this.maxIterations || System.currentTimeMillis() >= deadline) break;
+      
       count++;
+      long allocated = observed ? allocatedBytes() : -1;
+      long itertime = System.nanoTime();
+      this.runIteration();
+      if (observed) {
+        long nanos = System.nanoTime() - itertime;
+        allocated = allocated < 0 ? -1 : Math.max(0, allocatedBytes() - allocated);
+        IterationMetrics m = this.describeIteration(count, nanos, allocated);
+        for (IterationObserver o : this.observers) {
+          o.iterationDone(m);
+        }
+      }
+    }
+    this.iterations = count;
+    for (IterationObserver o : this.observers) {
+      o.runDone(this.getModelName(), count, this.converged, System.nanoTime() - starttime);
     }
   }
   
-  // interfaces for subclasses
-  abstract protected boolean isConverged();
+  /**
+   * the bytes allocated so far by the live threads, or -1 if the JVM does not count
+   * them. a thread that ends between two calls takes its count with it, which is why
+   * the difference is clamped at 0.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+    
+    long res = 0;
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (bytes > 0) res += bytes;
+    }
+    return res;
+  }
   
-  abstract protected void runIteration();
+  public int getIterations() {
+    return this.iterations;
+  }
   
-  // class for ranking, which records the document id and its pagerank score
-  static class RankItem implements Comparable {
-    private int docid;
-    private double prscore;
+  public boolean hasConverged() {
+    return this.converged;
+  }
+  
+  /**
+   * release the threads of the sweeps once the engine is done. the scores stay
+   * readable, but the engine must not run again
+   */
+  @Override
+  public void close() {
+    this.sweep.close();
+  }
+  
+  /**
+   * replace the graph, e.g. after edges were added or removed. the node count and
+   * the thread count stay the same, and so does the number of sweep ranges, which are
+   * only moved to balance the new in links.
+   * @param g
+   */
+  protected void setGraph(SparseGraph g) {
+    this.graph = g;
+    this.sweep.repartition(g);
+    this.extrapolator = null;
+  }
+  
+  /**
+   * save the current pagerank vectors, keyed by the input and the parameters
+   * @param fp
+   * @throws IOException
+   */
+  public void saveSnapshot(String fp) throws IOException {
+    double[] params = this.getParameters();
+    double[] accuracy = this.getAccuracy();
+    double[] key = Arrays.copyOf(params, params.length + accuracy.length);
+    System.arraycopy(accuracy, 0, key, params.length, accuracy.length);
+    new RankSnapshot(this.getFingerprint(), key, this.dimension, this.exportVectors()).write(fp);
+  }
+  
+  /**
+   * the parameters of the stopping criterion a snapshot has to match to be used without
+   * running: the norm and the tolerance, or NaN for a criterion without them
+   * @return
+   */
+  private double[] getAccuracy() {
+    if (!(this.criterion instanceof ConvergenceCriterion.Tolerance)) return new double[] { Double.NaN };
     
-    public RankItem(int id, double s) {
-      this.docid = id;
-      this.prscore = s;
-    }
+    ConvergenceCriterion.Tolerance t = (ConvergenceCriterion.Tolerance) this.criterion;
+    return new double[] { t.getNorm().ordinal(), t.getTolerance() };
+  }
+  
+  /**
+   * load the pagerank vectors of a snapshot if it was computed with the same parameters.
+   * after an EXACT match the vectors are final and run() can be skipped; after a
+   * WARM_START run() starts from them instead of the uniform vector.
+   * @param fp
+   * @return
+   */
+  public RankSnapshot.Match loadSnapshot(String fp) {
+    if (!new File(fp).isFile()) return RankSnapshot.Match.NONE;
     
-    public int getDocid() {
-      return docid;
+    try {
+      RankSnapshot snapshot = RankSnapshot.read(fp);
+      RankSnapshot.Match res = snapshot.match(this.getFingerprint(), this.getParameters(), this.getAccuracy(), this.dimension, this.getVectorCount());
+      if (res != RankSnapshot.Match.NONE) {
+        this.importVectors(snapshot.getValues());
+      }
+      return res;
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-    
-    public double getPrscore() {
-      return prscore;
+    return RankSnapshot.Match.NONE;
+  }
+  
+  /**
+   * run() unless the snapshot already holds the answer, and save the snapshot after
+   * running if run() converged. without a snapshot file this is just run().
+   * @param fp the snapshot file, or null
+   * @return how the snapshot was used
+   * @throws IOException if the snapshot cannot be written
+   */
+  public RankSnapshot.Match runWithSnapshot(String fp) throws IOException {
+    RankSnapshot.Match res = fp == null ? RankSnapshot.Match.NONE : this.loadSnapshot(fp);
+    if (res == RankSnapshot.Match.EXACT) {
+      System.out.println("Loaded the pagerank vectors from " + fp);
+      return res;
     }
     
-    public String toString() {
-      return this.docid + " - " + this.prscore;
+    if (res == RankSnapshot.Match.WARM_START) {
+      System.out.println("Warm start from " + fp + ", computed on another graph or with another stopping criterion");
     }
-
-    @Override
-    public int compareTo(Object arg0) {
-      RankItem target = (RankItem) arg0;
-      if (this.getPrscore() - target.getPrscore() > 0) return -1;
-      if (this.getPrscore() - target.getPrscore() < 0) return 1;
-      return 0;
+    this.run();
+    if (fp == null) return res;
+    
+    // a later run would take the vectors as the answer
+    if (this.hasConverged()) {
+      this.saveSnapshot(fp);
+    } else {
+      System.out.println("Not saving " + fp + ", the pagerank vectors have not converged");
     }
+    return res;
   }
   
+  /**
+   * identifies the input of the computation; the graph unless a subclass has more
+   * @return
+   */
+  protected long getFingerprint() {
+    return this.graph.getFingerprint();
+  }
+  
+  // interfaces for subclasses
+  
+  // whether the residuals of the last runIteration() meet the criterion
+  abstract protected boolean isConverged();
+  
+  // one iteration, which also computes the residuals
+  abstract protected void runIteration();
+  
+  // the parameters a snapshot has to match
+  abstract protected double[] getParameters();
+  
+  // the number of pagerank vectors computed
+  abstract protected int getVectorCount();
+  
+  // the name the observers know the computation by
+  abstract protected String getModelName();
+  
+  // the metrics of the last runIteration(), given its duration and allocations
+  abstract protected IterationMetrics describeIteration(int iteration, long nanos, long allocatedBytes);
+  
+  // a copy of the pagerank vectors, one after another
+  abstract protected double[] exportVectors();
+  
+  // start over from the given vectors, laid out as exportVectors() returns them
+  abstract protected void importVectors(double[] values);
+  
   // print out the ranking result
-  static void printRankingResult(final List<Double> prvalues, final int topn) {
-    List<RankItem> rankingRes = new ArrayList<RankItem>();
-    for (int i = 0; i < prvalues.size(); i++) {
-      rankingRes.add(new RankItem(i+1, prvalues.get(i)));
-    }
-    
-    Collections.sort(rankingRes);
-    
-    for (int i = 0; i < topn; i++) {
-      System.out.println((i+1) + ", " + rankingRes.get(i).getDocid() + ", " + rankingRes.get(i).getPrscore());
+  static void printRankingResult(final RankVector prvalues, final int topn) {
+    int[] best = prvalues.top(0, topn);
+    for (int i = 0; i < best.length; i++) {
+      System.out.println((i+1) + ", " + (best[i] + 1) + ", " + prvalues.get(best[i]));
     }
   }
 }
@@ -0,0 +1,370 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads whitespace separated ints and doubles straight from bytes, without creating
+ * a String per line or per field. The bytes come from a stream or channel through a
+ * reusable buffer, or from a ByteBuffer such as a mapped region of a file; reset()
+ * points an existing tokenizer at the next source so the buffer is reused.
+ *
+ * Fields are separated by spaces, tabs or carriage returns and lines by '\n'.
+ * Malformed numbers throw NumberFormatException, like Integer.parseInt does.
+ */
+public class ByteTokenizer {
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  // a number is parsed in place once this many bytes, or the rest of the input, are buffered
+  private static final int MAX_TOKEN_BYTES = 512;
+
+  // the powers of ten that are exact in a double
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final byte[] buffer;
+
+  private final ByteBuffer wrapped;
+
+  // the source, either a channel or a byte buffer
+  private ReadableByteChannel channel;
+
+  private ByteBuffer region;
+
+  // the unread bytes are buffer[pos .. limit)
+  private int pos;
+
+  private int limit;
+
+  private boolean eof;
+
+  public ByteTokenizer() {
+    this.buffer = new byte[BUFFER_BYTES];
+    this.wrapped = ByteBuffer.wrap(this.buffer);
+    this.eof = true;
+  }
+
+  public ByteTokenizer(InputStream in) {
+    this();
+    this.reset(in);
+  }
+
+  public ByteTokenizer(ByteBuffer region) {
+    this();
+    this.reset(region);
+  }
+
+  /**
+   * read from a stream; a FileInputStream is read through its channel
+   * @param in
+   * @return
+   */
+  public ByteTokenizer reset(InputStream in) {
+    ReadableByteChannel c = (in instanceof FileInputStream) ? ((FileInputStream) in).getChannel() : Channels.newChannel(in);
+    return this.reset(c, null);
+  }
+
+  /**
+   * read the remaining bytes of a buffer, e.g. a mapped region of a file
+   * @param r
+   * @return
+   */
+  public ByteTokenizer reset(ByteBuffer r) {
+    return this.reset(null, r.duplicate());
+  }
+
+  private ByteTokenizer reset(ReadableByteChannel c, ByteBuffer r) {
+    this.channel = c;
+    this.region = r;
+    this.pos = 0;
+    this.limit = 0;
+    this.eof = false;
+    return this;
+  }
+
+  /**
+   * close the underlying channel, if any
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    if (this.channel != null) this.channel.close();
+    this.channel = null;
+    this.region = null;
+    this.eof = true;
+  }
+
+  /**
+   * move the unread bytes to the front of the buffer and read as many more as fit
+   */
+  private void fill() throws IOException {
+    System.arraycopy(this.buffer, this.pos, this.buffer, 0, this.limit - this.pos);
+    this.limit -= this.pos;
+    this.pos = 0;
+
+    while (!this.eof && this.limit < this.buffer.length) {
+      if (this.region != null) {
+        int n = Math.min(this.region.remaining(), this.buffer.length - this.limit);
+        this.region.get(this.buffer, this.limit, n);
+        this.limit += n;
+        if (!this.region.hasRemaining()) this.eof = true;
+      } else {
+        this.wrapped.limit(this.buffer.length).position(this.limit);
+        int n = this.channel.read(this.wrapped);
+        if (n < 0) {
+          this.eof = true;
+        } else {
+          this.limit += n;
+        }
+      }
+    }
+  }
+
+  private static boolean isBlank(byte b) {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  /**
+   * skip blanks, and newlines too if lines is set
+   * @return whether a byte follows
+   */
+  private boolean skip(boolean lines) throws IOException {
+    while (true) {
+      while (this.pos < this.limit && (isBlank(this.buffer[this.pos]) || (lines && this.buffer[this.pos] == '\n'))) {
+        this.pos++;
+      }
+      if (this.pos < this.limit) return true;
+      if (this.eof) return false;
+      this.fill();
+    }
+  }
+
+  /**
+   * make sure a whole token is buffered before it is parsed in place
+   */
+  private void startToken() throws IOException {
+    if (!this.skip(true)) {
+      throw new NumberFormatException("Unexpected end of input");
+    }
+    if (this.limit - this.pos < MAX_TOKEN_BYTES && !this.eof) {
+      this.fill();
+    }
+  }
+
+  /**
+   * check that a number is followed by a separator
+   */
+  private void endToken(int start) {
+    if (this.pos < this.limit) {
+      byte b = this.buffer[this.pos];
+      if (!isBlank(b) && b != '\n' && b != ':') {
+        throw new NumberFormatException("For input string: \"" + this.token(start) + "\"");
+      }
+    }
+  }
+
+  /**
+   * the token starting at start, for error messages and the slow path of nextDouble()
+   */
+  private String token(int start) {
+    int end = start;
+    while (end < this.limit && !isBlank(this.buffer[end]) && this.buffer[end] != '\n' && this.buffer[end] != ':') {
+      end++;
+    }
+    this.pos = end;
+    return new String(this.buffer, start, end - start, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * the token starting at start when it goes on past the buffered bytes, read across
+   * as many refills as it takes
+   */
+  private String longToken(int start) throws IOException {
+    StringBuilder res = new StringBuilder();
+    this.pos = start;
+    while (true) {
+      res.append(this.token(this.pos));
+      if (this.pos < this.limit || this.eof) return res.toString();
+      this.fill();
+    }
+  }
+
+  /**
+   * judge whether another token follows, on this line or a later one
+   * @return
+   * @throws IOException
+   */
+  public boolean hasNext() throws IOException {
+    return this.skip(true);
+  }
+
+  /**
+   * judge whether the current line has no more tokens
+   * @return
+   * @throws IOException
+   */
+  public boolean atEndOfLine() throws IOException {
+    return !this.skip(false) || this.buffer[this.pos] == '\n';
+  }
+
+  /**
+   * skip the rest of the current line, including the newline
+   * @throws IOException
+   */
+  public void skipLine() throws IOException {
+    while (true) {
+      while (this.pos < this.limit) {
+        if (this.buffer[this.pos++] == '\n') return;
+      }
+      if (this.eof) return;
+      this.fill();
+    }
+  }
+
+  /**
+   * skip the next token, e.g. a field that is not needed
+   * @throws IOException
+   */
+  public void skipToken() throws IOException {
+    this.skip(true);
+    while (true) {
+      while (this.pos < this.limit && !isBlank(this.buffer[this.pos]) && this.buffer[this.pos] != '\n') {
+        this.pos++;
+      }
+      if (this.pos < this.limit || this.eof) return;
+      this.fill();
+    }
+  }
+
+  /**
+   * consume a separator such as the ':' of "topic:probability"
+   * @param c
+   * @throws IOException
+   */
+  public void skipChar(char c) throws IOException {
+    if (this.pos == this.limit && !this.eof) this.fill();
+    if (this.pos == this.limit || this.buffer[this.pos] != c) {
+      throw new NumberFormatException("Expected '" + c + "'");
+    }
+    this.pos++;
+  }
+
+  /**
+   * read the next non-blank byte, e.g. the "+" or "-" of an edge delta
+   * @return
+   * @throws IOException
+   */
+  public char nextChar() throws IOException {
+    if (!this.skip(true)) {
+      throw new NumberFormatException("Unexpected end of input");
+    }
+    return (char) (this.buffer[this.pos++] & 0xff);
+  }
+
+  public int nextInt() throws IOException {
+    long res = this.nextLong();
+    if (res < Integer.MIN_VALUE || res > Integer.MAX_VALUE) {
+      throw new NumberFormatException("Value out of range: " + res);
+    }
+    return (int) res;
+  }
+
+  public long nextLong() throws IOException {
+    this.startToken();
+    int start = this.pos;
+    boolean negative = false;
+    if (this.buffer[this.pos] == '-' || this.buffer[this.pos] == '+') {
+      negative = this.buffer[this.pos] == '-';
+      this.pos++;
+    }
+
+    long res = 0;
+    int digits = 0;
+    while (this.pos < this.limit && this.buffer[this.pos] >= '0' && this.buffer[this.pos] <= '9') {
+      res = res * 10 + (this.buffer[this.pos++] - '0');
+      if (++digits > 18) {
+        throw new NumberFormatException("For input string: \"" + this.token(start) + "\"");
+      }
+    }
+    if (digits == 0) {
+      throw new NumberFormatException("For input string: \"" + this.token(start) + "\"");
+    }
+    this.endToken(start);
+
+    return negative ? -res : res;
+  }
+
+  /**
+   * parse a double. numbers with up to 18 significant digits and a small exponent
+   * are computed exactly from an integer and a power of ten; Double.parseDouble takes
+   * the others, so the result is always the correctly rounded value.
+   * @return
+   * @throws IOException
+   */
+  public double nextDouble() throws IOException {
+    this.startToken();
+    int start = this.pos;
+    boolean negative = false;
+    if (this.buffer[this.pos] == '-' || this.buffer[this.pos] == '+') {
+      negative = this.buffer[this.pos] == '-';
+      this.pos++;
+    }
+
+    long mantissa = 0;
+    int digits = 0; // the significant digits in the mantissa
+    int exponent = 0;
+    boolean any = false;
+    boolean exact = true;
+    boolean fraction = false;
+    while (this.pos < this.limit) {
+      byte b = this.buffer[this.pos];
+      if (b >= '0' && b <= '9') {
+        any = true;
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (b - '0');
+          if (mantissa != 0) digits++;
+          if (fraction) exponent--;
+        } else {
+          if (b != '0') exact = false;
+          if (!fraction) exponent++;
+        }
+      } else if (b == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+      this.pos++;
+    }
+
+    if (any && this.pos < this.limit && (this.buffer[this.pos] == 'e' || this.buffer[this.pos] == 'E')) {
+      this.pos++;
+      boolean negexp = false;
+      if (this.pos < this.limit && (this.buffer[this.pos] == '-' || this.buffer[this.pos] == '+')) {
+        negexp = this.buffer[this.pos] == '-';
+        this.pos++;
+      }
+      int e = 0;
+      int edigits = 0;
+      while (this.pos < this.limit && this.buffer[this.pos] >= '0' && this.buffer[this.pos] <= '9') {
+        e = Math.min(e * 10 + (this.buffer[this.pos++] - '0'), 100000);
+        edigits++;
+      }
+      if (edigits == 0) any = false;
+      exponent += negexp ? -e : e;
+    }
+
+    if (this.pos == this.limit && !this.eof) {
+      // a token longer than MAX_TOKEN_BYTES, cut by the end of the buffered bytes
+      return Double.parseDouble(this.longToken(start));
+    }
+    if (!any || !exact || mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+      // NaN, Infinity, long mantissas and large exponents
+      return Double.parseDouble(this.token(start));
+    }
+    this.endToken(start);
+
+    double res = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -res : res;
+  }
+}
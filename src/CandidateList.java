@@ -0,0 +1,142 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * The result list of one user-query in primitive arrays, the documents in the order
+ * they were added and their retrieval scores, with room for the scores ReRanker
+ * computes. A list is reused from one user-query to the next, so one list per thread
+ * re-ranks any number of result lists without allocating once its arrays have grown.
+ */
+public class CandidateList {
+  private int[] docids = new int[256];
+
+  private double[] retrievalScores = new double[256];
+
+  // filled by ReRanker: the pagerank score and the final score of each document
+  double[] pagerankScores = new double[256];
+
+  double[] finalScores = new double[256];
+
+  private int size;
+
+  // an open addressing table of the positions plus 1 by document, 0 for an empty slot,
+  // at least twice as large as the arrays so that probes stay short
+  private int[] slots = new int[512];
+
+  /**
+   * empty the list, keeping its arrays
+   */
+  public void clear() {
+    Arrays.fill(this.slots, 0);
+    this.size = 0;
+  }
+
+  /**
+   * add a document; a document added again keeps its position and takes the new
+   * score, as in a map from the documents to their scores
+   * @param docid
+   * @param score
+   */
+  public void add(int docid, double score) {
+    int slot = this.slot(docid);
+    if (this.slots[slot] > 0) {
+      this.retrievalScores[this.slots[slot] - 1] = score;
+      return;
+    }
+
+    if (this.size == this.docids.length) {
+      this.grow();
+      slot = this.slot(docid);
+    }
+    this.docids[this.size] = docid;
+    this.retrievalScores[this.size] = score;
+    this.slots[slot] = ++this.size;
+  }
+
+  /**
+   * the slot of a document in the table, or the empty slot where it would go
+   */
+  private int slot(int docid) {
+    int mask = this.slots.length - 1;
+    int h = docid * 0x9E3779B9;
+    int at = (h ^ (h >>> 16)) & mask;
+    while (this.slots[at] > 0 && this.docids[this.slots[at] - 1] != docid) {
+      at = (at + 1) & mask;
+    }
+    return at;
+  }
+
+  private void grow() {
+    int capacity = 2 * this.docids.length;
+    this.docids = Arrays.copyOf(this.docids, capacity);
+    this.retrievalScores = Arrays.copyOf(this.retrievalScores, capacity);
+    this.pagerankScores = new double[capacity];
+    this.finalScores = new double[capacity];
+    this.slots = new int[2 * capacity];
+    for (int i = 0; i < this.size; i++) {
+      this.slots[this.slot(this.docids[i])] = i + 1;
+    }
+  }
+
+  /**
+   * replace the list by an indri result list read from a stream, which is closed at the end
+   * @param in
+   * @param tokenizer
+   * @throws IOException
+   */
+  public void read(InputStream in, ByteTokenizer tokenizer) throws IOException {
+    this.clear();
+    tokenizer.reset(in);
+    try {
+      while (tokenizer.hasNext()) {
+        tokenizer.skipToken();
+        tokenizer.skipToken();
+        int docid = tokenizer.nextInt();
+        tokenizer.skipToken();
+        this.add(docid, tokenizer.nextDouble());
+        tokenizer.skipLine();
+      }
+    } finally {
+      tokenizer.close();
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getDocument(int i) {
+    return this.docids[i];
+  }
+
+  public double getRetrievalScore(int i) {
+    return this.retrievalScores[i];
+  }
+
+  /**
+   * the final score of a document, once ReRanker has scored the list
+   * @param i the position of the document in the list
+   * @return
+   */
+  public double getFinalScore(int i) {
+    return this.finalScores[i];
+  }
+
+  /**
+   * one page of the documents by decreasing final score, in list order on ties
+   * @param offset the rank of the first document, 0-based
+   * @param k the page size
+   * @return the positions of the documents in the list
+   */
+  public int[] top(int offset, int k) {
+    return TopK.select(this.finalScores, this.size, offset, k);
+  }
+
+  int[] getDocuments() {
+    return this.docids;
+  }
+
+  double[] getRetrievalScores() {
+    return this.retrievalScores;
+  }
+}
@@ -0,0 +1,269 @@
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * A copy of converged pagerank vectors in less memory than the doubles they were
+ * computed in, for keeping many topic vectors resident while scoring:
+ *
+ *   DOUBLE  8 bytes a score, exact
+ *   FLOAT   4 bytes a score, a relative error of at most 6e-8
+ *   LOG16   2 bytes a score, the logarithm quantized to 65535 steps between the
+ *           smallest positive and the largest score of all the vectors, decoded by
+ *           a shared table of 65536 doubles; 0 keeps a code of its own
+ *
+ * The scores are stored document-major, the scores of all the vectors for one
+ * document next to each other, since a user-query reads them together. The
+ * quantization can tie documents whose scores are very close, which is what
+ * writeErrorReport() measures.
+ */
+public class CompactRankVectors {
+  public enum Precision {
+    DOUBLE,
+    FLOAT,
+    LOG16
+  }
+
+  // the codes of LOG16, 0 for a score of 0 and 1 .. LEVELS for the positive scores
+  private static final int LEVELS = 65535;
+
+  // the object header and length of an array
+  private static final long ARRAY_OVERHEAD_BYTES = 16;
+
+  private final Precision precision;
+
+  private final int vectors;
+
+  private final int dimension;
+
+  // the scores, one array set by the precision
+  private double[] values;
+
+  private float[] floats;
+
+  private short[] codes;
+
+  private double[] table;
+
+  // the log distance between two LOG16 codes, 0 for the other precisions
+  private double step;
+
+  /**
+   * @param exact the vectors to store, all of the same size
+   * @param precision
+   */
+  public CompactRankVectors(List<RankVector> exact, Precision precision) {
+    if (exact.isEmpty()) {
+      throw new IllegalArgumentException("No vectors to store");
+    }
+    this.precision = precision;
+    this.vectors = exact.size();
+    this.dimension = exact.get(0).size();
+    for (RankVector v : exact) {
+      if (v.size() != this.dimension) {
+        throw new IllegalArgumentException("Vectors of sizes " + this.dimension + " and " + v.size() + " cannot be stored together");
+      }
+    }
+
+    int n = this.vectors * this.dimension;
+    switch (precision) {
+      case DOUBLE:
+        this.values = new double[n];
+        for (int t = 0; t < this.vectors; t++) {
+          RankVector v = exact.get(t);
+          for (int i = 0; i < this.dimension; i++)
+            this.values[i * this.vectors + t] = v.get(i);
+        }
+        break;
+      case FLOAT:
+        this.floats = new float[n];
+        for (int t = 0; t < this.vectors; t++) {
+          RankVector v = exact.get(t);
+          for (int i = 0; i < this.dimension; i++)
+            this.floats[i * this.vectors + t] = (float) v.get(i);
+        }
+        break;
+      case LOG16:
+        this.quantize(exact);
+        break;
+    }
+  }
+
+  /**
+   * choose the log scale from the range of the positive scores and encode every score
+   * by the nearest step of the scale; negative scores are stored as 0
+   */
+  private void quantize(List<RankVector> exact) {
+    double lo = Double.POSITIVE_INFINITY;
+    double hi = 0.0;
+    for (RankVector v : exact) {
+      for (int i = 0; i < this.dimension; i++) {
+        double x = v.get(i);
+        if (x > 0.0) {
+          if (x < lo) lo = x;
+          if (x > hi) hi = x;
+        }
+      }
+    }
+
+    double base = hi > 0.0 ? Math.log(lo) : 0.0;
+    this.step = hi > lo ? (Math.log(hi) - base) / (LEVELS - 1) : 0.0;
+    this.table = new double[LEVELS + 1];
+    for (int c = 1; c <= LEVELS; c++) {
+      this.table[c] = Math.exp(base + (c - 1) * this.step);
+    }
+
+    this.codes = new short[this.vectors * this.dimension];
+    for (int t = 0; t < this.vectors; t++) {
+      RankVector v = exact.get(t);
+      for (int i = 0; i < this.dimension; i++) {
+        double x = v.get(i);
+        int code = 0;
+        if (x > 0.0) {
+          code = this.step == 0.0 ? 1 : 1 + (int) Math.round((Math.log(x) - base) / this.step);
+          code = Math.max(1, Math.min(LEVELS, code));
+        }
+        this.codes[i * this.vectors + t] = (short) code;
+      }
+    }
+  }
+
+  /**
+   * a view of one stored vector
+   * @param vector 0-based
+   * @return
+   */
+  public RankVector get(int vector) {
+    switch (this.precision) {
+      case FLOAT:
+        return new RankVector(this.floats, vector, this.vectors, this.dimension);
+      case LOG16:
+        return new RankVector(this.codes, this.table, vector, this.vectors, this.dimension);
+      default:
+        return new RankVector(this.values, vector, this.vectors, this.dimension);
+    }
+  }
+
+  /**
+   * views of all the stored vectors, in order
+   * @return
+   */
+  public List<RankVector> getAll() {
+    List<RankVector> res = new ArrayList<RankVector>(this.vectors);
+    for (int t = 0; t < this.vectors; t++) {
+      res.add(this.get(t));
+    }
+    return Collections.unmodifiableList(res);
+  }
+
+  public Precision getPrecision() {
+    return precision;
+  }
+
+  public int getVectorCount() {
+    return vectors;
+  }
+
+  /**
+   * the bound on the relative error of a positive score
+   * @return
+   */
+  public double getMaxRelativeError() {
+    switch (this.precision) {
+      case FLOAT:
+        return Math.ulp(1.0f) / 2;
+      case LOG16:
+        return Math.expm1(this.step / 2);
+      default:
+        return 0.0;
+    }
+  }
+
+  /**
+   * the bytes the scores take, including the decoding table
+   * @return
+   */
+  public long getMemoryBytes() {
+    long n = (long) this.vectors * this.dimension;
+    switch (this.precision) {
+      case FLOAT:
+        return ARRAY_OVERHEAD_BYTES + 4 * n;
+      case LOG16:
+        return ARRAY_OVERHEAD_BYTES + 2 * n + ARRAY_OVERHEAD_BYTES + 8L * this.table.length;
+      default:
+        return ARRAY_OVERHEAD_BYTES + 8 * n;
+    }
+  }
+
+  /**
+   * print how far the stored vectors are from the exact ones, one line per vector: the
+   * largest absolute and relative errors, the Kendall tau between the exact and the
+   * stored scores of the top documents by the exact scores, and how many of those top
+   * documents are still on top by the stored scores
+   * @param exact the vectors this was built from
+   * @param topn the number of top documents compared, e.g. 1000
+   * @param out
+   */
+  public void writeErrorReport(List<RankVector> exact, int topn, PrintStream out) {
+    out.println("Precision " + this.precision + ": " + (this.getMemoryBytes() >> 10) + " KiB for " + this.vectors + " vectors of " + this.dimension
+        + " scores, " + ((ARRAY_OVERHEAD_BYTES + 8L * this.vectors * this.dimension) >> 10) + " KiB as doubles, relative error bound " + this.getMaxRelativeError());
+    for (int t = 0; t < this.vectors; t++) {
+      RankVector x = exact.get(t);
+      RankVector y = this.get(t);
+      double abs = 0.0;
+      double rel = 0.0;
+      for (int i = 0; i < this.dimension; i++) {
+        double e = Math.abs(x.get(i) - y.get(i));
+        if (e > abs) abs = e;
+        if (x.get(i) != 0.0 && e / Math.abs(x.get(i)) > rel) rel = e / Math.abs(x.get(i));
+      }
+
+      int[] top = x.top(0, topn);
+      Set<Integer> kept = new HashSet<Integer>();
+      for (int i : y.top(0, top.length)) {
+        kept.add(i);
+      }
+      int overlap = 0;
+      for (int i : top) {
+        if (kept.contains(i)) overlap++;
+      }
+      out.println("Vector " + (t + 1) + ": max abs error " + abs + ", max rel error " + rel + ", Kendall tau of the top " + top.length + " "
+          + kendallTau(x, y, top) + ", " + overlap + " of them still on top");
+    }
+  }
+
+  /**
+   * the Kendall tau-b of two score vectors over some of their items, which counts the
+   * pairs of items both vectors order the same way against those they order the other
+   * way, corrected for the pairs either vector ties
+   * @param x
+   * @param y
+   * @param items the indices compared
+   * @return 1 if the orders agree, -1 if they are reversed
+   */
+  public static double kendallTau(RankVector x, RankVector y, int[] items) {
+    long concordant = 0;
+    long discordant = 0;
+    long xties = 0;
+    long yties = 0;
+    for (int a = 0; a < items.length; a++) {
+      double xa = x.get(items[a]);
+      double ya = y.get(items[a]);
+      for (int b = a + 1; b < items.length; b++) {
+        int dx = Double.compare(xa, x.get(items[b]));
+        int dy = Double.compare(ya, y.get(items[b]));
+        if (dx == 0 && dy == 0) continue;
+        if (dx == 0) {
+          xties++;
+        } else if (dy == 0) {
+          yties++;
+        } else if (dx == dy) {
+          concordant++;
+        } else {
+          discordant++;
+        }
+      }
+    }
+    double denom = Math.sqrt((double) (concordant + discordant + xties) * (concordant + discordant + yties));
+    return denom == 0.0 ? 1.0 : (concordant - discordant) / denom;
+  }
+}
@@ -0,0 +1,31 @@
+import java.io.PrintStream;
+
+/**
+ * one line per iteration and one per run on a stream, usually System.out
+ */
+public class ConsoleObserver implements IterationObserver {
+  private final PrintStream out;
+
+  public ConsoleObserver(PrintStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public synchronized void iterationDone(IterationMetrics m) {
+    StringBuilder line = new StringBuilder();
+    line.append(m.getModel()).append(" iteration ").append(m.getIteration());
+    line.append(": ").append(m.getNanos() / 1000000).append(" ms");
+    line.append(", ").append(Math.round(m.getEdgesPerSecond())).append(" edges/s");
+    line.append(", residual ").append(m.getMaxMeasure());
+    if (m.getVectorCount() > 1) {
+      line.append(", ").append(m.getConvergedCount()).append(" of ").append(m.getVectorCount()).append(" vectors converged");
+    }
+    this.out.println(line);
+  }
+
+  @Override
+  public synchronized void runDone(String model, int iterations, boolean converged, long nanos) {
+    this.out.println(model + (converged ? " converged after " : " stopped without converging after ")
+        + iterations + " iterations in " + (nanos / 1000000) + " ms");
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * decides from the residual of an iteration whether a pagerank vector has converged.
+ * run() checks it after every iteration, and the topic-sensitive pagerank checks it
+ * for each topic separately.
+ */
+public interface ConvergenceCriterion {
+  /**
+   * the value of the residual the decision is based on, for the logs
+   * @param r
+   * @return
+   */
+  double measure(Residual r);
+
+  boolean isConverged(Residual r);
+
+  /**
+   * a norm of the residual below a fixed tolerance
+   */
+  public static class Tolerance implements ConvergenceCriterion {
+    public enum Norm {
+      // the L2 norm divided by the number of nodes, the original criterion. the
+      // tolerance this implies shrinks as the graph grows
+      SCALED_L2,
+      // the sum of the absolute changes
+      L1,
+      // the largest absolute change of a single score
+      LINF,
+      // the L1 norm relative to the L1 norm of the new vector
+      RELATIVE
+    }
+
+    // the original criterion of both models
+    public static final Tolerance DEFAULT = new Tolerance(Norm.SCALED_L2, 0.00000001);
+
+    private final Norm norm;
+
+    private final double tolerance;
+
+    public Tolerance(Norm norm, double tolerance) {
+      if (!(tolerance > 0.0)) {
+        throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+      }
+      this.norm = norm;
+      this.tolerance = tolerance;
+    }
+
+    @Override
+    public double measure(Residual r) {
+      switch (this.norm) {
+      case L1:
+        return r.getL1();
+      case LINF:
+        return r.getLinf();
+      case RELATIVE:
+        return r.getL1() / r.getNorm();
+      default:
+        return r.getL2() / (double) r.getDimension();
+      }
+    }
+
+    @Override
+    public boolean isConverged(Residual r) {
+      return this.measure(r) < this.tolerance;
+    }
+
+    public Norm getNorm() {
+      return this.norm;
+    }
+
+    public double getTolerance() {
+      return this.tolerance;
+    }
+
+    @Override
+    public String toString() {
+      return this.norm.name().toLowerCase() + " < " + this.tolerance;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Loads a "from to" edge list into a SparseGraph on several threads. The file is
+ * mapped and split into line-aligned chunks that are parsed in parallel, then both
+ * the out-link and the in-link rows are built by counting degrees, a prefix sum and
+ * a scatter.
+ *
+ * Each thread owns a range of rows. While a chunk is parsed its edges are bucketed
+ * by the owner of their row, and every owner then counts and scatters its buckets
+ * in chunk order, so no two threads write the same row and no atomics are needed.
+ * Rows are sorted and deduplicated at the end, and the graph is the same as
+ * SparseGraph.fromEdges() builds, whatever the thread count.
+ */
+public class EdgeListFile {
+  // the number of chunks per thread, so that a slow chunk does not stall the load
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  // the largest chunk mapped at once
+  private static final long MAX_CHUNK_BYTES = 1L << 29;
+
+  /**
+   * the edges of one chunk that fall in the rows of one owner, 0-based
+   */
+  private static class Bucket {
+    int[] row = new int[256];
+    int[] col = new int[256];
+    int size;
+
+    void add(int r, int c) {
+      if (this.size == this.row.length) {
+        this.row = Arrays.copyOf(this.row, this.size * 2);
+        this.col = Arrays.copyOf(this.col, this.size * 2);
+      }
+      this.row[this.size] = r;
+      this.col[this.size] = c;
+      this.size++;
+    }
+  }
+
+  /**
+   * read an edge list file
+   * @param fp
+   * @param d the number of nodes
+   * @param threads
+   * @return
+   * @throws IOException
+   */
+  public static SparseGraph read(String fp, int d, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive: " + threads);
+    }
+    ForkJoinPool pool = threads == 1 ? null : new ForkJoinPool(threads);
+    try {
+      return read(fp, d, threads, pool);
+    } finally {
+      if (pool != null) pool.shutdown();
+    }
+  }
+
+  private static SparseGraph read(String fp, final int d, int threads, ForkJoinPool pool) throws IOException {
+    // the rows owned by each thread
+    final int[] owners = evenly(d, threads);
+
+    // 1. parse the chunks, bucketing the edges by the owner of their source
+    final Bucket[][] chunks;
+    FileChannel channel = FileChannel.open(Paths.get(fp), StandardOpenOption.READ);
+    try {
+      final long[] bounds = split(channel, threads == 1 ? 1 : threads * CHUNKS_PER_THREAD);
+      final FileChannel source = channel;
+      chunks = new Bucket[bounds.length - 1][];
+      run(pool, evenly(chunks.length, chunks.length), new ParallelSweep.RangeTask() {
+
+        @Override
+        public void run(int part, int from, int to) {
+          try {
+            ByteBuffer region = source.map(FileChannel.MapMode.READ_ONLY, bounds[part], bounds[part + 1] - bounds[part]);
+            chunks[part] = parse(new ByteTokenizer(region), d, owners.length - 1);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      channel.close();
+    }
+
+    // 2. scatter the targets into their rows, in the order of the file
+    final int[] offsets = new int[d + 1];
+    final int[] targets = scatter(pool, chunks, owners, offsets);
+
+    // 3. sort each row and drop the duplicates, then close the gaps
+    int parts = pool == null ? 1 : threads * CHUNKS_PER_THREAD;
+    final int[] outDegree = new int[d];
+    run(pool, ParallelSweep.partition(offsets, d, parts), new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        for (int i = from; i < to; i++) {
+          outDegree[i] = sortUnique(targets, offsets[i], offsets[i + 1]);
+        }
+      }
+
+    });
+    final int[] outOffsets = new int[d + 1];
+    for (int i = 0; i < d; i++) {
+      outOffsets[i + 1] = outOffsets[i] + outDegree[i];
+    }
+    final int[] outTargets = outOffsets[d] == targets.length ? targets : new int[outOffsets[d]];
+    if (outTargets != targets) {
+      run(pool, ParallelSweep.partition(offsets, d, parts), new ParallelSweep.RangeTask() {
+
+        @Override
+        public void run(int part, int from, int to) {
+          for (int i = from; i < to; i++) {
+            System.arraycopy(targets, offsets[i], outTargets, outOffsets[i], outDegree[i]);
+          }
+        }
+
+      });
+    }
+
+    // 4. bucket the links of each range of sources by the owner of their target.
+    // the sources are visited in increasing order, so every in-link row comes out sorted
+    final Bucket[][] ranges = new Bucket[threads][];
+    run(pool, ParallelSweep.partition(outOffsets, d, threads), new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        Bucket[] buckets = newBuckets(owners.length - 1);
+        for (int i = from; i < to; i++) {
+          for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+            buckets[owner(outTargets[k], d, buckets.length)].add(outTargets[k], i);
+          }
+        }
+        ranges[part] = buckets;
+      }
+
+    });
+    int[] inOffsets = new int[d + 1];
+    int[] inSources = scatter(pool, ranges, owners, inOffsets);
+
+    return new SparseGraph(d, outOffsets, outTargets, inOffsets, inSources, outDegree);
+  }
+
+  private static Bucket[] newBuckets(int n) {
+    Bucket[] res = new Bucket[n];
+    for (int t = 0; t < n; t++) {
+      res[t] = new Bucket();
+    }
+    return res;
+  }
+
+  /**
+   * count the rows, fill in their offsets and scatter the columns into them. owner t
+   * handles buckets[p][t] for every p, in order, and the buckets are released as they are done
+   * @param buckets
+   * @param owners owner t holds the rows [owners[t], owners[t+1])
+   * @param offsets filled with the row offsets
+   * @return the columns of the rows
+   */
+  private static int[] scatter(ForkJoinPool pool, final Bucket[][] buckets, int[] owners, final int[] offsets) {
+    int d = offsets.length - 1;
+    run(pool, owners, new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        for (Bucket[] b : buckets) {
+          Bucket bucket = b[part];
+          for (int k = 0; k < bucket.size; k++) {
+            offsets[bucket.row[k] + 1]++;
+          }
+        }
+      }
+
+    });
+    for (int i = 0; i < d; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+
+    final int[] res = new int[offsets[d]];
+    run(pool, owners, new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int[] cursor = Arrays.copyOfRange(offsets, from, to);
+        for (Bucket[] b : buckets) {
+          Bucket bucket = b[part];
+          for (int k = 0; k < bucket.size; k++) {
+            res[cursor[bucket.row[k] - from]++] = bucket.col[k];
+          }
+          b[part] = null;
+        }
+      }
+
+    });
+
+    return res;
+  }
+
+  /**
+   * split the file into line-aligned chunks
+   * @return chunk p covers the bytes [res[p], res[p+1])
+   */
+  private static long[] split(FileChannel channel, int parts) throws IOException {
+    long size = channel.size();
+    parts = (int) Math.max(parts, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+    long[] res = new long[parts + 1];
+
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    for (int p = 1; p < parts; p++) {
+      long pos = Math.max(size * p / parts, res[p - 1]);
+      // move the boundary past the end of the line it falls in
+      boolean found = false;
+      while (!found && pos < size) {
+        probe.clear();
+        int n = channel.read(probe, pos);
+        for (int k = 0; k < n && !found; k++) {
+          if (probe.get(k) == '\n') found = true;
+          pos++;
+        }
+      }
+      res[p] = Math.min(pos, size);
+    }
+    res[parts] = size;
+
+    return res;
+  }
+
+  /**
+   * parse the edges of a chunk into one bucket per owner
+   */
+  private static Bucket[] parse(ByteTokenizer tokenizer, int d, int owners) throws IOException {
+    Bucket[] res = newBuckets(owners);
+    while (tokenizer.hasNext()) {
+      int from = tokenizer.nextInt();
+      int to = tokenizer.nextInt();
+      tokenizer.skipLine();
+      SparseGraph.checkNode(from, d);
+      SparseGraph.checkNode(to, d);
+
+      res[owner(from - 1, d, owners)].add(from - 1, to - 1);
+    }
+    return res;
+  }
+
+  /**
+   * the first line of an edge list with a node out of range, for the error message of a
+   * file read() rejected. the file is read line by line, so this is for errors only.
+   * @param fp
+   * @param d the number of nodes
+   * @return the line number, 1-based, or -1 if every node is in range
+   * @throws IOException
+   */
+  static long findNodeOutOfRange(String fp, int d) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fp), StandardCharsets.US_ASCII));
+    try {
+      long line = 0;
+      String s;
+      while ((s = reader.readLine()) != null) {
+        line++;
+        String[] fields = s.trim().split("[ \\t]+");
+        for (int k = 0; k < 2 && k < fields.length; k++) {
+          try {
+            long id = Long.parseLong(fields[k]);
+            if (id < 1 || id > d) return line;
+          } catch (NumberFormatException e) {
+            // a malformed line is reported by read() as such
+          }
+        }
+      }
+      return -1;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * sort a[from .. to) and move its distinct values to the front
+   * @return the number of distinct values
+   */
+  private static int sortUnique(int[] a, int from, int to) {
+    Arrays.sort(a, from, to);
+    int size = from;
+    for (int k = from; k < to; k++) {
+      if (k == from || a[k] != a[k - 1]) {
+        a[size++] = a[k];
+      }
+    }
+    return size - from;
+  }
+
+  /**
+   * the range of evenly(n, parts) that holds item i, the last p with n * p / parts <= i
+   */
+  private static int owner(int i, int n, int parts) {
+    return (int) (((long) (i + 1) * parts + n - 1) / n) - 1;
+  }
+
+  /**
+   * split n items into parts ranges of the same size
+   */
+  private static int[] evenly(int n, int parts) {
+    int[] res = new int[parts + 1];
+    for (int p = 0; p <= parts; p++) {
+      res[p] = (int) ((long) n * p / parts);
+    }
+    return res;
+  }
+
+  /**
+   * run the task over the ranges [bounds[p], bounds[p+1]), inline if there is no pool
+   */
+  private static void run(ForkJoinPool pool, final int[] bounds, final ParallelSweep.RangeTask task) {
+    if (pool == null) {
+      for (int p = 0; p + 1 < bounds.length; p++) {
+        task.run(p, bounds[p], bounds[p + 1]);
+      }
+      return;
+    }
+
+    List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+    for (int p = 0; p + 1 < bounds.length; p++) {
+      final int part = p;
+      workers.add(new Callable<Object>() {
+
+        @Override
+        public Object call() {
+          task.run(part, bounds[part], bounds[part + 1]);
+          return null;
+        }
+
+      });
+    }
+
+    try {
+      for (Future<Object> f : pool.invokeAll(workers)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading the graph", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Loading the graph failed", e.getCause());
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: <transition_file> <dimension> [-threads <n>]");
+      return ;
+    }
+
+    int d = Integer.parseInt(args[1]);
+    Map<String, String> options = Utilities.parseOptions(args, 2);
+    int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : Runtime.getRuntime().availableProcessors();
+
+    long starttime = System.currentTimeMillis();
+    SparseGraph g = read(args[0], d, threads);
+    System.out.println("Loaded " + g.getEdgeCount() + " edges on " + threads + " threads in " + (System.currentTimeMillis() - starttime) + " ms");
+  }
+}
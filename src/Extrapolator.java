@@ -0,0 +1,303 @@
+import java.util.Arrays;
+
+/**
+ * accelerates the power iteration by extrapolating from its last iterates now and then,
+ * as in Kamvar et al., "Extrapolation methods for accelerating PageRank computations".
+ * once the error of the iteration is dominated by a few eigenvectors of the matrix, a
+ * combination of the last iterates cancels them out.
+ *
+ *   AITKEN     x(k) - (x(k) - x(k-1))^2 / (x(k) - 2 x(k-1) + x(k-2)), node by node,
+ *              assuming one eigenvector dominates the error
+ *   QUADRATIC  the combination of x(k-2), x(k-1) and x(k) that cancels two eigenvectors,
+ *              fitted by least squares to x(k-3) .. x(k)
+ *
+ * extrapolation happens every period iterations once enough iterates have been seen. the
+ * extrapolated vector has its negative scores set to 0 and is scaled to the mass of x(k).
+ * the next iteration tells whether it helped: if its residual is larger than that of
+ * x(k), the extrapolated vector is thrown away and the iteration goes on from x(k).
+ *
+ * a buffer holds several vectors, vector v of node i at v * vectorStride + i * nodeStride.
+ */
+class Extrapolator {
+  // the sums of the least squares fit per range
+  private static final int DOTS = 5;
+
+  private final AbstractPageRank.Extrapolation kind;
+
+  private final int period;
+
+  private final ParallelSweep sweep;
+
+  private final int dimension;
+
+  private final int vectorStride;
+
+  private final int nodeStride;
+
+  // x(k-3) and x(k-2), saved when they were the current iterate
+  private final double[] older;
+
+  private final double[] old;
+
+  // x(k) of the vectors that were extrapolated, for taking it back
+  private final double[] backup;
+
+  // for each vector, whether it was extrapolated after the last iteration and the
+  // residual of the iterate it replaced
+  private final boolean[] pending;
+
+  private final Residual[] before;
+
+  // per-range partial sums
+  private final double[] partials;
+
+  // the iterations seen since the last reset
+  private int iterations;
+
+  // the extrapolations made and taken back, by vector
+  private final int[] extrapolations;
+
+  private final int[] rejections;
+
+  /**
+   * @param kind AITKEN or QUADRATIC
+   * @param period the iterations between two extrapolations, more than the number of
+   *   iterates before x(k) the extrapolation uses
+   * @param sweep
+   * @param vectors the number of vectors in a buffer
+   * @param dimension
+   * @param vectorStride
+   * @param nodeStride
+   */
+  Extrapolator(AbstractPageRank.Extrapolation kind, int period, ParallelSweep sweep, int vectors, int dimension, int vectorStride, int nodeStride) {
+    int depth = kind == AbstractPageRank.Extrapolation.QUADRATIC ? 3 : 2;
+    if (period <= depth) {
+      throw new IllegalArgumentException("The period of " + kind + " extrapolation must be at least " + (depth + 1) + ": " + period);
+    }
+    this.kind = kind;
+    this.period = period;
+    this.sweep = sweep;
+    this.dimension = dimension;
+    this.vectorStride = vectorStride;
+    this.nodeStride = nodeStride;
+    this.older = kind == AbstractPageRank.Extrapolation.QUADRATIC ? new double[vectors * dimension] : null;
+    this.old = new double[vectors * dimension];
+    this.backup = new double[vectors * dimension];
+    this.pending = new boolean[vectors];
+    this.before = new Residual[vectors];
+    this.extrapolations = new int[vectors];
+    this.rejections = new int[vectors];
+    this.partials = new double[sweep.getPartCount() * DOTS];
+  }
+
+  /**
+   * forget the iterates seen so far, after the vectors were replaced
+   */
+  void reset() {
+    this.iterations = 0;
+    Arrays.fill(this.pending, false);
+  }
+
+  /**
+   * called after every iteration: takes back the last extrapolation if it made the
+   * residual larger, saves the iterates the next extrapolation needs, and extrapolates
+   * when it is time to
+   * @param cur x(k), replaced by the extrapolated or restored vectors
+   * @param pre x(k-1)
+   * @param vectors the vectors the iteration updated, the first count entries
+   * @param count
+   * @param residuals the residual of x(k) by vector, replaced for the restored vectors
+   * @param criterion
+   */
+  void afterIteration(double[] cur, double[] pre, int[] vectors, int count, Residual[] residuals, ConvergenceCriterion criterion) {
+    this.iterations++;
+    for (int k = 0; k < count; k++) {
+      int v = vectors[k];
+      if (!this.pending[v]) continue;
+
+      this.pending[v] = false;
+      if (!(criterion.measure(residuals[v]) <= criterion.measure(this.before[v]))) {
+        this.copy(this.backup, cur, v);
+        residuals[v] = this.before[v];
+        this.rejections[v]++;
+      }
+    }
+
+    int phase = this.iterations % this.period;
+    if (phase == this.period - 3 && this.older != null) {
+      for (int k = 0; k < count; k++)
+        this.copy(cur, this.older, vectors[k]);
+    } else if (phase == this.period - 2) {
+      for (int k = 0; k < count; k++)
+        this.copy(cur, this.old, vectors[k]);
+    } else if (phase == 0) {
+      for (int k = 0; k < count; k++) {
+        int v = vectors[k];
+        // a converged vector is final
+        if (criterion.isConverged(residuals[v])) continue;
+
+        this.copy(cur, this.backup, v);
+        boolean done = this.kind == AbstractPageRank.Extrapolation.QUADRATIC ? this.quadratic(cur, pre, v) : this.aitken(cur, pre, v);
+        if (done && this.normalize(cur, v, residuals[v].getNorm())) {
+          this.pending[v] = true;
+          this.before[v] = residuals[v];
+          this.extrapolations[v]++;
+        } else {
+          this.copy(this.backup, cur, v);
+        }
+      }
+    }
+  }
+
+  /**
+   * x(k) - (x(k) - x(k-1))^2 / (x(k) - 2 x(k-1) + x(k-2)) on the nodes where the second
+   * difference is not negligible, x(k) on the others
+   */
+  private boolean aitken(final double[] cur, final double[] pre, int v) {
+    final double[] x2 = this.old;
+    final int base = v * this.vectorStride;
+    final int stride = this.nodeStride;
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        for (int i = from; i < to; i++) {
+          int idx = base + i * stride;
+          double d1 = pre[idx] - x2[idx];
+          double d2 = cur[idx] - pre[idx];
+          double denom = d2 - d1;
+          // the error shrinks by the factor d2 / d1, which has to stay clear of 1
+          if (Math.abs(denom) > 0.001 * Math.abs(d2)) {
+            cur[idx] -= d2 * d2 / denom;
+          }
+        }
+      }
+
+    });
+    return true;
+  }
+
+  /**
+   * with y(j) = x(j) - x(k-3), find g1 and g2 minimizing |g1 y(k-2) + g2 y(k-1) + y(k)|
+   * from the normal equations, then x = (g1 + g2 + 1) x(k-2) + (g2 + 1) x(k-1) + x(k)
+   * @return false if y(k-2) and y(k-1) are too close to parallel for the fit
+   */
+  private boolean quadratic(final double[] cur, final double[] pre, int v) {
+    final double[] x3 = this.older;
+    final double[] x2 = this.old;
+    final double[] dots = this.partials;
+    final int base = v * this.vectorStride;
+    final int stride = this.nodeStride;
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        double a11 = 0.0, a12 = 0.0, a22 = 0.0, b1 = 0.0, b2 = 0.0;
+        for (int i = from; i < to; i++) {
+          int idx = base + i * stride;
+          double y1 = x2[idx] - x3[idx];
+          double y2 = pre[idx] - x3[idx];
+          double y3 = cur[idx] - x3[idx];
+          a11 += y1 * y1;
+          a12 += y1 * y2;
+          a22 += y2 * y2;
+          b1 += y1 * y3;
+          b2 += y2 * y3;
+        }
+        int at = part * DOTS;
+        dots[at] = a11;
+        dots[at + 1] = a12;
+        dots[at + 2] = a22;
+        dots[at + 3] = b1;
+        dots[at + 4] = b2;
+      }
+
+    });
+    double a11 = this.sumPartials(0), a12 = this.sumPartials(1), a22 = this.sumPartials(2);
+    double b1 = this.sumPartials(3), b2 = this.sumPartials(4);
+    double det = a11 * a22 - a12 * a12;
+    if (!(det > 1e-12 * a11 * a22)) return false;
+
+    double g1 = (a12 * b2 - a22 * b1) / det;
+    double g2 = (a12 * b1 - a11 * b2) / det;
+    final double c2 = g1 + g2 + 1.0;
+    final double c1 = g2 + 1.0;
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        for (int i = from; i < to; i++) {
+          int idx = base + i * stride;
+          cur[idx] = c2 * x2[idx] + c1 * pre[idx] + cur[idx];
+        }
+      }
+
+    });
+    return true;
+  }
+
+  /**
+   * set the negative scores to 0 and scale the vector to the given mass
+   * @return false if nothing positive is left
+   */
+  private boolean normalize(final double[] x, int v, double mass) {
+    final double[] sums = this.partials;
+    final int base = v * this.vectorStride;
+    final int stride = this.nodeStride;
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        double res = 0.0;
+        for (int i = from; i < to; i++) {
+          int idx = base + i * stride;
+          if (x[idx] < 0.0) x[idx] = 0.0;
+          res += x[idx];
+        }
+        sums[part * DOTS] = res;
+      }
+
+    });
+    double sum = this.sumPartials(0);
+    if (!(sum > 0.0) || Double.isInfinite(sum)) return false;
+
+    final double scale = mass / sum;
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        for (int i = from; i < to; i++) {
+          x[base + i * stride] *= scale;
+        }
+      }
+
+    });
+    return true;
+  }
+
+  /**
+   * add up one of the partial sums in range order
+   */
+  private double sumPartials(int slot) {
+    double res = 0.0;
+    for (int part = 0; part < this.sweep.getPartCount(); part++) {
+      res += this.partials[part * DOTS + slot];
+    }
+    return res;
+  }
+
+  private void copy(double[] from, double[] to, int v) {
+    int base = v * this.vectorStride;
+    for (int i = 0; i < this.dimension; i++) {
+      to[base + i * this.nodeStride] = from[base + i * this.nodeStride];
+    }
+  }
+
+  int getExtrapolations(int vector) {
+    return this.extrapolations[vector];
+  }
+
+  int getRejections(int vector) {
+    return this.rejections[vector];
+  }
+}
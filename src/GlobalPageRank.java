@@ -1,35 +1,54 @@
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 
 public class GlobalPageRank extends AbstractPageRank {
   
   private double dampingFactor; // 1 - alpha
   
   // current pagerank values
-  private List<Double> prvalues;
+  private double[] prvalues;
   
-  // pagerank values of previous round
-  private List<Double> preprvalues;
+  // pagerank values of previous round, reused as the output buffer of the next round
+  private double[] preprvalues;
+
+  // the sum of the current pagerank values, which the teleport spreads over all nodes
+  private double mass;
+  
+  // per-range residual sums of the last sweep, Residual.SLOTS per range
+  private double[] residualPartials;
+  
+  // the residual of the last iteration
+  private Residual residual;
+  
+  // the score of the nodes without out links redistributed in the last iteration
+  private double danglingMass;
+  
+  // the one vector and its residual as the extrapolation takes them, filled each iteration
+  private final int[] extrapolatedVectors = { 0 };
+  private final Residual[] extrapolatedResiduals = new Residual[1];
 
   public GlobalPageRank(int d, double dp, String mfp) {
-    super(d, mfp);
+    this(d, dp, mfp, 1);
+  }
+  
+  public GlobalPageRank(int d, double dp, String mfp, int threads) {
+    super(d, mfp, threads);
     this.dampingFactor = dp;
     
     this.prvalues = this.initPageRankVector();
     this.preprvalues = null;
+    this.mass = sum(this.prvalues);
+    this.residualPartials = new double[this.sweep.getPartCount() * Residual.SLOTS];
   }
   
   /**
    * get the initial pagerank vector.
    * @return
    */
-  private List<Double> initPageRankVector() {
-    List<Double> res = new ArrayList<Double>();
+  private double[] initPageRankVector() {
+    double[] res = new double[this.dimension];
     
-    for (int i = 0; i < this.dimension; i++) {
-      res.add(1.0/(double) this.dimension);
-    }
+    Arrays.fill(res, 1.0/(double) this.dimension);
     
     return res;
   }
@@ -41,14 +60,7 @@ public class GlobalPageRank extends AbstractPageRank {
   protected final boolean isConverged() {
     if (this.preprvalues == null) return false;
     
-    double edistance = 0.0;
-    
-    for (int i = 0; i < this.dimension; i++) {
-      edistance += Math.pow(this.preprvalues.get(i) - this.prvalues.get(i), 2.0);
-    }
-    edistance = Math.sqrt(edistance) / (double) this.dimension;
-    
-    return (edistance < 0.00000001);
+    return this.criterion.isConverged(this.residual);
   }
 
   /**
@@ -57,74 +69,303 @@ public class GlobalPageRank extends AbstractPageRank {
    */
   @Override
   protected final void runIteration() {
-    long curtime = System.currentTimeMillis();
-    List<Double> curprs = this.getPageRankValues();
-    List<Double> newprs = new ArrayList<Double>(this.dimension);
-    Set<Integer> nooutlink = new HashSet<Integer>(); // the set to accommodate those nodes without outlinks
-    
-    // 1. compute Alpha * r
-    double sumr = 0.0;
-    for (Double pr : curprs)
-      sumr += pr;
-    sumr = (sumr / (double) this.dimension) * (1.0 - this.dampingFactor);
-    for (int i = 0; i < this.dimension; i++) {
-      newprs.add(i, sumr);
+    final double[] curprs = this.prvalues;
+    final double[] newprs = this.preprvalues == null ? new double[this.dimension] : this.preprvalues;
+    
+    // 1. the teleport Alpha * r and the redistributed pr score of the nodes without out
+    // links are the same for every node, so they are added as one scalar
+    final double dp = this.dampingFactor;
+    this.danglingMass = this.graph.getDanglingMass(curprs, 0, 1);
+    final double uniform = (this.mass / (double) this.dimension) * (1.0 - dp) + dp * this.danglingMass / (double) this.dimension;
+    
+    if (this.solver == Solver.GAUSS_SEIDEL) {
+      this.runGaussSeidelSweep(curprs, newprs, uniform);
+    } else {
+      this.runJacobiSweep(curprs, newprs, uniform);
     }
     
-    // 2. compute (1-Alpha) * M^T * r
-    for (Entry<Integer, Set<Integer>> entry : this.transposedTransitionMatrix.entrySet()) {
-      Integer toDocId = entry.getKey();
-      double tempsum = 0.0;
-      
-      for (Integer fromDocId : entry.getValue()) {
-        Integer normlen = this.transitionMatrix.get(fromDocId).size();
-        tempsum += (1.0/(double) normlen) * curprs.get(fromDocId - 1) * this.dampingFactor;
+    // update the pagerank value vector
+    this.updatePageRankValue(newprs);
+  }
+  
+  /**
+   * 2. compute (1-Alpha) * M^T * r plus the uniform part, and the residual
+   */
+  private void runJacobiSweep(final double[] curprs, final double[] newprs, final double uniform) {
+    final int[] inOffsets = this.graph.getInOffsets();
+    final int[] inSources = this.graph.getInSources();
+    final int[] outDegree = this.graph.getOutDegree();
+    final double[] residuals = this.residualPartials;
+    final double dp = this.dampingFactor;
+    
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int at = part * Residual.SLOTS;
+        Residual.clear(residuals, at);
+        for (int i = from; i < to; i++) {
+          double tempsum = 0.0;
+          
+          for (int k = inOffsets[i]; k < inOffsets[i + 1]; k++) {
+            int src = inSources[k];
+            tempsum += (1.0/(double) outDegree[src]) * curprs[src] * dp;
+          }
+          
+          newprs[i] = uniform + tempsum;
+          Residual.add(residuals, at, curprs[i], newprs[i]);
+        }
       }
       
-      newprs.set(toDocId - 1, newprs.get(toDocId - 1) + tempsum);
+    });
+  }
+  
+  /**
+   * one Gauss-Seidel sweep. the scores of a range are updated in place, so in links
+   * from nodes earlier in the same range read the new scores; in links from other
+   * ranges read the previous round, which keeps the result deterministic for a given
+   * thread count. with one thread this is the plain Gauss-Seidel method. the uniform
+   * part is taken from the previous round.
+   */
+  private void runGaussSeidelSweep(final double[] curprs, final double[] newprs, final double uniform) {
+    final int[] inOffsets = this.graph.getInOffsets();
+    final int[] inSources = this.graph.getInSources();
+    final int[] outDegree = this.graph.getOutDegree();
+    final double[] residuals = this.residualPartials;
+    final double dp = this.dampingFactor;
+    final double omega = this.relaxation;
+    
+    // 2. update the scores in place and compute the residual
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int at = part * Residual.SLOTS;
+        Residual.clear(residuals, at);
+        System.arraycopy(curprs, from, newprs, from, to - from);
+        for (int i = from; i < to; i++) {
+          double tempsum = 0.0;
+          
+          for (int k = inOffsets[i]; k < inOffsets[i + 1]; k++) {
+            int src = inSources[k];
+            double pr = (src >= from && src < to) ? newprs[src] : curprs[src];
+            tempsum += (1.0/(double) outDegree[src]) * pr * dp;
+          }
+          
+          newprs[i] = omega * (uniform + tempsum) + (1.0 - omega) * curprs[i];
+          Residual.add(residuals, at, curprs[i], newprs[i]);
+        }
+      }
       
-      // find a node without outlink
-      if (!this.transitionMatrix.containsKey(toDocId))
-        nooutlink.add(toDocId);
+    });
+  }
+  
+  /**
+   * add and remove edges, then bring the converged pagerank vector up to date by pushing
+   * residuals from the affected nodes instead of solving again from the uniform vector.
+   * 
+   * only the targets of the changed sources have a residual to begin with. pushing the
+   * residual of a node into its score moves residual to its out links, and the change
+   * of the teleport and dangling terms it causes is the same for every node, so it is
+   * accumulated in one scalar. if that scalar outgrows epsilon, the remaining error is
+   * not local any more and run() finishes the job, warm-started from the pushed vector.
+   * @param addFrom the sources of the added edges, 1-based
+   * @param addTo
+   * @param removeFrom the sources of the removed edges, 1-based
+   * @param removeTo
+   * @param epsilon the residual below which a node is left alone
+   * @return the number of node updates; a full recompute takes getIterations() * dimension
+   */
+  public long applyEdgeDelta(int[] addFrom, int[] addTo, int[] removeFrom, int[] removeTo, double epsilon) {
+    SparseGraph oldGraph = this.graph;
+    SparseGraph newGraph = oldGraph.withEdgeDelta(addFrom, addTo, removeFrom, removeTo);
+    double[] x = this.prvalues;
+    double dp = this.dampingFactor;
+    
+    // the uniform part of the update before and after the change
+    double sumr = sum(x);
+    double oldUniform = (sumr / (double) this.dimension) * (1.0 - dp) + dp * oldGraph.getDanglingMass(x, 0, 1) / (double) this.dimension;
+    double newUniform = (sumr / (double) this.dimension) * (1.0 - dp) + dp * newGraph.getDanglingMass(x, 0, 1) / (double) this.dimension;
+    
+    // the nodes whose in links changed: the old and new out links of the changed sources
+    boolean[] affected = new boolean[this.dimension];
+    int[][] sources = new int[][] { addFrom, removeFrom };
+    for (int[] froms : sources) {
+      for (int from : froms) {
+        for (SparseGraph g : new SparseGraph[] { oldGraph, newGraph }) {
+          for (int k = g.getOutOffsets()[from - 1]; k < g.getOutOffsets()[from]; k++) {
+            affected[g.getOutTargets()[k]] = true;
+          }
+        }
+      }
     }
     
-    // 3. distribute the pr score of those nodes without out links
-    sumr = 0.0;
-    for (Integer id : nooutlink) {
-      sumr += curprs.get(id - 1);
+    int[] inOffsets = newGraph.getInOffsets();
+    int[] inSources = newGraph.getInSources();
+    int[] outOffsets = newGraph.getOutOffsets();
+    int[] outTargets = newGraph.getOutTargets();
+    int[] outDegree = newGraph.getOutDegree();
+    
+    // the residual is r[i] + uniform, with r exact on the affected nodes and 0 elsewhere
+    // because the old vector had converged
+    double[] r = new double[this.dimension];
+    double uniform = newUniform - oldUniform;
+    long updates = 0;
+    // a node is in the ring at most once, so dimension slots are enough
+    int[] queue = new int[this.dimension];
+    int head = 0;
+    int queueSize = 0;
+    boolean[] queued = new boolean[this.dimension];
+    for (int i = 0; i < this.dimension; i++) {
+      if (!affected[i]) continue;
+      double tempsum = 0.0;
+      for (int k = inOffsets[i]; k < inOffsets[i + 1]; k++) {
+        tempsum += (1.0/(double) outDegree[inSources[k]]) * x[inSources[k]] * dp;
+      }
+      r[i] = oldUniform + tempsum - x[i];
+      updates++;
+      if (Math.abs(r[i]) > epsilon) {
+        queue[queueSize++] = i;
+        queued[i] = true;
+      }
     }
-    sumr = this.dampingFactor * sumr / (double) this.dimension;
+    
+    while (queueSize > 0) {
+      int u = queue[head];
+      head = head + 1 == this.dimension ? 0 : head + 1;
+      queueSize--;
+      queued[u] = false;
+      double delta = r[u];
+      x[u] += delta;
+      r[u] = 0.0;
+      updates++;
+      
+      for (int k = outOffsets[u]; k < outOffsets[u + 1]; k++) {
+        int v = outTargets[k];
+        r[v] += dp * delta / (double) outDegree[u];
+        if (!queued[v] && Math.abs(r[v]) > epsilon) {
+          int tail = head + queueSize;
+          queue[tail >= this.dimension ? tail - this.dimension : tail] = v;
+          queueSize++;
+          queued[v] = true;
+        }
+      }
+      
+      uniform += delta * (1.0 - dp) / (double) this.dimension;
+      if (outDegree[u] == 0)
+        uniform += delta * dp / (double) this.dimension;
+    }
+    
+    // the update is linear in the scores, so every multiple of the fixed point is one as
+    // well; the pushes move the total mass, which is scaled back to what run() keeps
+    double scale = sumr / sum(x);
     for (int i = 0; i < this.dimension; i++) {
-      newprs.set(i, newprs.get(i) + sumr);
+      x[i] *= scale;
     }
+    uniform *= scale;
     
-    // update the pagerank value vector
-    this.updatePageRankValue(newprs);
-    System.out.println(System.currentTimeMillis() - curtime);
+    this.setGraph(newGraph);
+    this.preprvalues = null;
+    this.mass = sum(x);
+    if (Math.abs(uniform) > epsilon) {
+      this.run();
+      updates += (long) this.getIterations() * this.dimension;
+    }
+    
+    return updates;
   }
   
-  private void updatePageRankValue(List<Double> newprvalues) {
+  private void updatePageRankValue(double[] newprvalues) {
     this.preprvalues = this.prvalues;
     this.prvalues = newprvalues;
+    this.residual = Residual.sum(this.residualPartials, this.sweep.getPartCount(), 1, 0, this.dimension);
+    Extrapolator extrapolator = this.getExtrapolator(1, 0, 1);
+    if (extrapolator != null) {
+      this.extrapolatedResiduals[0] = this.residual;
+      extrapolator.afterIteration(this.prvalues, this.preprvalues, this.extrapolatedVectors, 1, this.extrapolatedResiduals, this.criterion);
+      this.residual = this.extrapolatedResiduals[0];
+    }
+    // the scores are positive, so the norm the residual sums up is their sum
+    this.mass = this.residual.getNorm();
   }
   
-  public List<Double> getPageRankValues() {
-    return Collections.unmodifiableList(this.prvalues);
+  private static double sum(double[] x) {
+    double res = 0.0;
+    for (int i = 0; i < x.length; i++)
+      res += x[i];
+    return res;
+  }
+  
+  /**
+   * the residual of the last iteration, or null before the first one
+   * @return
+   */
+  public Residual getResidual() {
+    return this.preprvalues == null ? null : this.residual;
+  }
+  
+  /**
+   * a view of the current scores, valid until the engine runs again, see RankVector
+   * @return
+   */
+  public RankVector getPageRankValues() {
+    return new RankVector(this.prvalues);
+  }
+  
+  @Override
+  protected double[] getParameters() {
+    return new double[] { this.dampingFactor };
+  }
+  
+  @Override
+  protected int getVectorCount() {
+    return 1;
+  }
+  
+  @Override
+  protected String getModelName() {
+    return "gpr";
+  }
+  
+  @Override
+  protected IterationMetrics describeIteration(int iteration, long nanos, long allocatedBytes) {
+    return new IterationMetrics(this.getModelName(), iteration, nanos, allocatedBytes, this.graph.getEdgeCount(),
+        new int[] { 1 }, new Residual[] { this.residual }, new double[] { this.danglingMass }, this.criterion);
+  }
+  
+  @Override
+  protected double[] exportVectors() {
+    return this.prvalues.clone();
+  }
+  
+  @Override
+  protected void importVectors(double[] values) {
+    System.arraycopy(values, 0, this.prvalues, 0, this.dimension);
+    this.preprvalues = null;
+    this.mass = sum(this.prvalues);
+    this.resetExtrapolation();
   }
 
   public static void main(String[] args) {
     long starttime = System.currentTimeMillis();
-    if (args.length != 3) {
-      System.err.println("Usage: <test_dir> <method> <output>");
+    if (args.length < 3) {
+      System.err.println("Usage: <test_dir> <method> <output> [-threads <n>] [-readers <n>] [-solver <jacobi|gauss_seidel>] [-relaxation <w>] [-extrapolation <none|aitken|quadratic>] [-extrapolation-period <n>] [-criterion <scaled_l2|l1|linf|relative>] [-tolerance <x>] [-max-iterations <n>] [-time-budget <ms>] [-console <true|false>] [-metrics-jsonl <file>] [-metrics-prom <file>] [-delta <edge_delta_file>] [-snapshot <file>] [-weights <pagerank,retrieval>]");
       return ;
     }
     
     String testDir = args[0];
     int method = Integer.parseInt(args[1]);
     String outpuFilename = args[2];
+    Map<String, String> options = Utilities.parseOptions(args, 3);
+    int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : 1;
+    int readers = options.containsKey("readers") ? Integer.parseInt(options.get("readers")) : threads;
+    Solver solver = options.containsKey("solver") ? Solver.valueOf(options.get("solver").toUpperCase()) : Solver.JACOBI;
+    double relaxation = options.containsKey("relaxation") ? Double.parseDouble(options.get("relaxation")) : 1.0;
+    Extrapolation extrapolation = options.containsKey("extrapolation") ? Extrapolation.valueOf(options.get("extrapolation").toUpperCase()) : Extrapolation.NONE;
+    int extrapolationPeriod = options.containsKey("extrapolation-period") ? Integer.parseInt(options.get("extrapolation-period")) : 10;
     
     try {
-      BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outpuFilename))));
+      OutputStream output = new BufferedOutputStream(new FileOutputStream(new File(outpuFilename)), 1 << 20);
       
       File[] testFiles = (new File(testDir)).listFiles(new FilenameFilter() {
 
@@ -136,84 +377,45 @@ public class GlobalPageRank extends AbstractPageRank {
       });
       
       // run the pagerank algorithm
-      GlobalPageRank gpr = new GlobalPageRank(81433, 0.85, "transition.txt");
-      gpr.run();
-
-      // get the pagerank scores
-      List<Double> scores = gpr.getPageRankValues();
+      GlobalPageRank gpr = new GlobalPageRank(81433, 0.85, "transition.txt", threads);
+      gpr.setSolver(solver, relaxation);
+      gpr.setExtrapolation(extrapolation, extrapolationPeriod);
+      gpr.setConvergence(options);
+      gpr.addObservers(Utilities.createObservers(options, true));
+      RankSnapshot.Match match = gpr.runWithSnapshot(options.get("snapshot"));
+      if (match != RankSnapshot.Match.EXACT && extrapolation != Extrapolation.NONE) {
+        System.out.println(gpr.getExtrapolations() + " extrapolations, " + gpr.getRejectedExtrapolations() + " taken back");
+      }
       
-      // read the query files
-      for (File tfile : testFiles) {
-        System.out.println("Processing " + tfile.getName());
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tfile)));
-        String userqueryid = tfile.getName().substring(0, tfile.getName().indexOf("."));
-        Map<Integer, Double> result = new HashMap<Integer, Double>();
-        
-        String line = null;
-        while((line = reader.readLine()) != null) {
-          String[] fields = line.split(" ");
-          result.put(Integer.parseInt(fields[2]), Double.parseDouble(fields[4]));
+      // bring the scores up to date with an edge delta
+      if (options.containsKey("delta")) {
+        long fullUpdates = (long) gpr.getIterations() * gpr.dimension;
+        int[][] delta = Utilities.readEdgeDelta(options.get("delta"));
+        long updates = gpr.applyEdgeDelta(delta[0], delta[1], delta[2], delta[3], 0.00000001);
+        if (match == RankSnapshot.Match.EXACT) {
+          // nothing was computed to compare with
+          System.out.println("Edge delta applied with " + updates + " node updates");
+        } else {
+          System.out.println("Edge delta applied with " + updates + " node updates, a full recompute took " + fullUpdates);
         }
-        
-        // compute the score by different methods
-        Set<Integer> docs = new HashSet<Integer>(result.keySet());
-        switch (method) {
-          case 1:
-            for (int docid : docs) {
-              result.put(docid, scores.get(docid - 1));
-            }
-            break;
-          case 2:
-            for (int docid : docs) {
-              result.put(docid, 0.2 * scores.get(docid - 1) + 0.8 * result.get(docid));
-            }
-            break;
-          case 3:
-            double prmax = Double.MIN_VALUE;
-            double prmin = Double.MAX_VALUE;
-            double relmax = Double.MIN_VALUE;
-            double relmin = Double.MAX_VALUE;
-            for (int docid : docs) {
-              double prvalue = scores.get(docid - 1);
-              if (prvalue > prmax) prmax = prvalue;
-              if (prvalue < prmin) prmin = prvalue;
-              
-              double relvalue = result.get(docid);
-              if (relvalue > relmax) relmax = relvalue;
-              if (relvalue < relmin) relmin = relvalue;
-            }
-            
-            for (int docid : docs) {
-              double relvalue = result.get(docid);
-              double prvalue = scores.get(docid - 1);
-              
-              result.put(docid, 0.2 * ((prvalue - prmin) / (prmax - prmin)) + 0.8 * ((relvalue - relmin) / (relmax - relmin)));
-            }
-            break;
-        }
-        
-        // sort the result according to the final score
-        List<Entry<Integer, Double>> rankingItems = new ArrayList<Entry<Integer, Double>>(result.entrySet());
-        Collections.sort(rankingItems, new Comparator<Entry<Integer, Double>>() {
-
-          @Override
-          public int compare(Entry<Integer, Double> arg0, Entry<Integer, Double> arg1) {
-            if (arg0.getValue() > arg1.getValue()) return -1;
-            if (arg0.getValue() < arg1.getValue()) return 1;
-            return 0;
-          }
-          
-        });
-        
-        for (int i = 0; i < rankingItems.size(); i++) {
-          outputWriter.write(userqueryid + " Q0 " + rankingItems.get(i).getKey() + " " + (i+1) + " " + rankingItems.get(i).getValue() + " indri\n");
-        }
-        outputWriter.flush();
-        
-        reader.close();
       }
       
-      outputWriter.close();
+      // the scores are final, release the threads of the sweeps
+      gpr.close();
+      
+      // re-rank with the pagerank scores
+      ReRanker reranker = new ReRanker(gpr.getPageRankValues());
+      
+      if (options.containsKey("weights")) {
+        String[] weights = options.get("weights").split(",");
+        reranker.setWeights(Double.parseDouble(weights[0]), Double.parseDouble(weights[1]));
+      }
+      
+      // read the query files, compute the score by the method and sort the result
+      ResultListPipeline pipeline = new ResultListPipeline(reranker, method, readers, threads, 8 * (readers + threads));
+      pipeline.run(testFiles, output, System.out);
+      
+      output.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
     } catch (NumberFormatException e) {
@@ -0,0 +1,290 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * The binary graph file: a header followed by the arrays of a SparseGraph, so that a
+ * graph can be loaded by memory mapping instead of parsing transition.txt.
+ *
+ * Layout, all little-endian:
+ *   int magic "PPRG", int version, int dimension, int edge count, long CRC32 of the payload
+ *   int[dimension + 1] out offsets, int[edges] out targets,
+ *   int[dimension + 1] in offsets, int[edges] in sources, int[dimension] out degrees
+ */
+public class GraphFile {
+  private static final int MAGIC = 0x50505247;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_BYTES = 24;
+
+  // the largest region mapped at once
+  private static final int WINDOW_BYTES = 1 << 30;
+
+  /**
+   * write the graph to a binary graph file
+   * @param g
+   * @param fp
+   * @throws IOException
+   */
+  public static void write(SparseGraph g, String fp) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(fp), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      CRC32 crc = new CRC32();
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+      channel.position(HEADER_BYTES);
+      int[][] sections = new int[][] { g.getOutOffsets(), g.getOutTargets(), g.getInOffsets(), g.getInSources(), g.getOutDegree() };
+      for (int[] section : sections) {
+        for (int k = 0; k < section.length; k++) {
+          if (!buffer.hasRemaining()) flush(channel, buffer, crc);
+          buffer.putInt(section[k]);
+        }
+      }
+      flush(channel, buffer, crc);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(g.getDimension()).putInt(g.getEdgeCount()).putLong(crc.getValue());
+      header.flip();
+      channel.write(header, 0);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * the out-links of each node of a graph that is written without being held in memory
+   */
+  public interface RowSource {
+    /**
+     * the row of a node; it is asked for more than once and must be the same every time
+     * @param i 0-based
+     * @return the targets of node i, 0-based, sorted and distinct
+     */
+    int[] row(int i);
+  }
+
+  /**
+   * write a graph to a binary graph file one row at a time. the rows are produced twice,
+   * once to count the degrees and once to write the out-links, and the in-links are
+   * scattered straight into the mapped file; they come out sorted because the sources
+   * are visited in order. only the degrees, two ints per node, are held in memory
+   * @param d
+   * @param rows
+   * @param fp
+   * @return the number of edges
+   * @throws IOException
+   */
+  public static int write(int d, RowSource rows, String fp) throws IOException {
+    // 1. count the out-links and the in-links of every node
+    int[] outDegree = new int[d];
+    int[] inOffsets = new int[d + 1];
+    long m = 0;
+    for (int i = 0; i < d; i++) {
+      int[] row = rows.row(i);
+      outDegree[i] = row.length;
+      m += row.length;
+      for (int j : row) {
+        inOffsets[j + 1]++;
+      }
+    }
+    if (m > Integer.MAX_VALUE - 8) {
+      throw new IOException("The graph has " + m + " edges, more than a graph file holds");
+    }
+    for (int i = 0; i < d; i++) {
+      inOffsets[i + 1] += inOffsets[i];
+    }
+
+    long outTargetsPos = HEADER_BYTES + 4L * (d + 1);
+    long inOffsetsPos = outTargetsPos + 4L * m;
+    long inSourcesPos = inOffsetsPos + 4L * (d + 1);
+    long outDegreePos = inSourcesPos + 4L * m;
+    long size = outDegreePos + 4L * d;
+
+    FileChannel channel = FileChannel.open(Paths.get(fp), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+      // 2. the offsets and the degrees follow from the counts
+      channel.position(HEADER_BYTES);
+      int offset = 0;
+      buffer.putInt(0);
+      for (int i = 0; i < d; i++) {
+        if (!buffer.hasRemaining()) flush(channel, buffer, null);
+        offset += outDegree[i];
+        buffer.putInt(offset);
+      }
+      flush(channel, buffer, null);
+      channel.position(inOffsetsPos);
+      for (int i = 0; i <= d; i++) {
+        if (!buffer.hasRemaining()) flush(channel, buffer, null);
+        buffer.putInt(inOffsets[i]);
+      }
+      flush(channel, buffer, null);
+      channel.position(outDegreePos);
+      for (int i = 0; i < d; i++) {
+        if (!buffer.hasRemaining()) flush(channel, buffer, null);
+        buffer.putInt(outDegree[i]);
+      }
+      flush(channel, buffer, null);
+
+      // 3. write the out-links in order and scatter the in-links, with inOffsets as the cursors
+      MappedByteBuffer[] windows = map(channel, inSourcesPos, 4L * m);
+      int windowInts = WINDOW_BYTES / 4;
+      channel.position(outTargetsPos);
+      for (int i = 0; i < d; i++) {
+        int[] row = rows.row(i);
+        if (row.length != outDegree[i]) {
+          throw new IllegalStateException("Row " + i + " changed between the passes");
+        }
+        for (int j : row) {
+          if (!buffer.hasRemaining()) flush(channel, buffer, null);
+          buffer.putInt(j);
+          int k = inOffsets[j]++;
+          windows[k / windowInts].putInt(4 * (k % windowInts), i);
+        }
+      }
+      flush(channel, buffer, null);
+
+      // 4. checksum the payload and write the header
+      CRC32 crc = new CRC32();
+      for (long pos = HEADER_BYTES; pos < size; pos += WINDOW_BYTES) {
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_BYTES, size - pos)));
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(d).putInt((int) m).putLong(crc.getValue());
+      header.flip();
+      channel.write(header, 0);
+    } finally {
+      channel.close();
+    }
+    return (int) m;
+  }
+
+  /**
+   * map a region for writing in windows of WINDOW_BYTES, growing the file as needed
+   */
+  private static MappedByteBuffer[] map(FileChannel channel, long pos, long bytes) throws IOException {
+    MappedByteBuffer[] res = new MappedByteBuffer[(int) ((bytes + WINDOW_BYTES - 1) / WINDOW_BYTES)];
+    for (int w = 0; w < res.length; w++) {
+      long start = (long) w * WINDOW_BYTES;
+      res[w] = channel.map(FileChannel.MapMode.READ_WRITE, pos + start, Math.min(WINDOW_BYTES, bytes - start));
+      res[w].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return res;
+  }
+
+  // crc may be null
+  private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+    buffer.flip();
+    if (crc != null) crc.update(buffer.duplicate());
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * judge whether the file is a binary graph file
+   * @param fp
+   * @return
+   */
+  public static boolean isGraphFile(String fp) {
+    File file = new File(fp);
+    if (!file.isFile() || file.length() < HEADER_BYTES) return false;
+
+    try {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        return header.getInt(0) == MAGIC;
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * map a binary graph file and load the graph from it
+   * @param fp
+   * @param d the expected number of nodes
+   * @return
+   * @throws IOException if the file is not a valid graph file for d nodes
+   */
+  public static SparseGraph read(String fp, int d) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(fp), StandardOpenOption.READ);
+    try {
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt(0) != MAGIC) {
+        throw new IOException(fp + " is not a graph file");
+      }
+      if (header.getInt(4) != VERSION) {
+        throw new IOException(fp + " has version " + header.getInt(4) + ", expected " + VERSION);
+      }
+      if (header.getInt(8) != d) {
+        throw new IOException(fp + " has " + header.getInt(8) + " nodes, expected " + d);
+      }
+      int m = header.getInt(12);
+      long checksum = header.getLong(16);
+      long expected = HEADER_BYTES + 4L * (3L * d + 2 + 2L * m);
+      if (channel.size() != expected) {
+        throw new IOException(fp + " has " + channel.size() + " bytes, expected " + expected);
+      }
+
+      CRC32 crc = new CRC32();
+      long pos = HEADER_BYTES;
+      int[] outOffsets = new int[d + 1];
+      pos = readInts(channel, pos, outOffsets, crc);
+      int[] outTargets = new int[m];
+      pos = readInts(channel, pos, outTargets, crc);
+      int[] inOffsets = new int[d + 1];
+      pos = readInts(channel, pos, inOffsets, crc);
+      int[] inSources = new int[m];
+      pos = readInts(channel, pos, inSources, crc);
+      int[] outDegree = new int[d];
+      readInts(channel, pos, outDegree, crc);
+
+      if (crc.getValue() != checksum) {
+        throw new IOException(fp + " is corrupt, the checksum does not match");
+      }
+
+      return new SparseGraph(d, outOffsets, outTargets, inOffsets, inSources, outDegree);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * copy a section of the file into an array, one mapped window at a time
+   * @return the position right after the section
+   */
+  private static long readInts(FileChannel channel, long pos, int[] dst, CRC32 crc) throws IOException {
+    int done = 0;
+    while (done < dst.length) {
+      int count = Math.min(dst.length - done, WINDOW_BYTES / 4);
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L * count);
+      crc.update(window.duplicate());
+      window.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dst, done, count);
+      done += count;
+      pos += 4L * count;
+    }
+    return pos;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: <transition_file> <dimension> <output>");
+      return ;
+    }
+
+    long starttime = System.currentTimeMillis();
+    SparseGraph g = Utilities.readSparseGraph(args[0], Integer.parseInt(args[1]));
+    write(g, args[2]);
+    System.out.println("Wrote " + g.getEdgeCount() + " edges in " + (System.currentTimeMillis() - starttime) + " ms");
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * what one iteration of a pagerank computation did, as reported to the observers. the
+ * vectors are the ones the iteration updated: the global vector, or the topics of the
+ * topic-sensitive pagerank that had not converged yet.
+ */
+public final class IterationMetrics {
+  private final String model;
+
+  // 1-based
+  private final int iteration;
+
+  private final long nanos;
+
+  // the bytes allocated by all threads during the iteration, -1 if the JVM does not count them
+  private final long allocatedBytes;
+
+  // the edges read times the vectors updated along each of them
+  private final long edges;
+
+  // the 1-based ids of the vectors updated, the topic ids of the topic-sensitive pagerank
+  private final int[] vectors;
+
+  private final Residual[] residuals;
+
+  // the score of the nodes without out links that was redistributed, per vector
+  private final double[] danglingMass;
+
+  // the value the criterion compared with its tolerance, per vector
+  private final double[] measures;
+
+  private final boolean[] converged;
+
+  public IterationMetrics(String model, int iteration, long nanos, long allocatedBytes, long edges,
+      int[] vectors, Residual[] residuals, double[] danglingMass, ConvergenceCriterion criterion) {
+    this.model = model;
+    this.iteration = iteration;
+    this.nanos = nanos;
+    this.allocatedBytes = allocatedBytes;
+    this.edges = edges;
+    this.vectors = vectors;
+    this.residuals = residuals;
+    this.danglingMass = danglingMass;
+    this.measures = new double[vectors.length];
+    this.converged = new boolean[vectors.length];
+    for (int v = 0; v < vectors.length; v++) {
+      this.measures[v] = criterion.measure(residuals[v]);
+      this.converged[v] = criterion.isConverged(residuals[v]);
+    }
+  }
+
+  public String getModel() {
+    return this.model;
+  }
+
+  public int getIteration() {
+    return this.iteration;
+  }
+
+  public long getNanos() {
+    return this.nanos;
+  }
+
+  public long getAllocatedBytes() {
+    return this.allocatedBytes;
+  }
+
+  public long getEdges() {
+    return this.edges;
+  }
+
+  public double getEdgesPerSecond() {
+    return this.nanos == 0 ? 0.0 : this.edges / (this.nanos / 1e9);
+  }
+
+  public int getVectorCount() {
+    return this.vectors.length;
+  }
+
+  /**
+   * @param v the position in this iteration, not the vector id
+   * @return
+   */
+  public int getVector(int v) {
+    return this.vectors[v];
+  }
+
+  public Residual getResidual(int v) {
+    return this.residuals[v];
+  }
+
+  // the sum of the new scores of a vector
+  public double getRankMass(int v) {
+    return this.residuals[v].getNorm();
+  }
+
+  public double getDanglingMass(int v) {
+    return this.danglingMass[v];
+  }
+
+  public double getMeasure(int v) {
+    return this.measures[v];
+  }
+
+  public boolean isConverged(int v) {
+    return this.converged[v];
+  }
+
+  /**
+   * the largest measure over the vectors, which decides whether the iteration was the last
+   * @return
+   */
+  public double getMaxMeasure() {
+    double res = 0.0;
+    for (int v = 0; v < this.measures.length; v++) {
+      // NaN wins, it never converges
+      if (!(this.measures[v] <= res)) res = this.measures[v];
+    }
+    return res;
+  }
+
+  public int getConvergedCount() {
+    int res = 0;
+    for (int v = 0; v < this.converged.length; v++) {
+      if (this.converged[v]) res++;
+    }
+    return res;
+  }
+}
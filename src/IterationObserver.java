@@ -0,0 +1,20 @@
+/**
+ * receives the metrics of a pagerank computation as run() goes, on the thread that
+ * called run(). one observer can be added to several engines.
+ */
+public interface IterationObserver {
+  /**
+   * called after every iteration
+   * @param m
+   */
+  void iterationDone(IterationMetrics m);
+
+  /**
+   * called at the end of every run()
+   * @param model
+   * @param iterations
+   * @param converged false if the iteration or time limit stopped the run
+   * @param nanos
+   */
+  void runDone(String model, int iterations, boolean converged, long nanos);
+}
@@ -0,0 +1,93 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * appends one JSON object per iteration and per run to a file, flushed line by line so
+ * the file can be followed while the computation runs:
+ *
+ *   {"event":"iteration","model":"tspr","iteration":3,"seconds":...,"edges":...,
+ *    "edgesPerSecond":...,"allocatedBytes":...,"vectors":[{"vector":1,"measure":...,
+ *    "l1":...,"l2":...,"linf":...,"rankMass":...,"danglingMass":...,"converged":false},...]}
+ *   {"event":"run","model":"tspr","iterations":5,"converged":true,"seconds":...}
+ */
+public class JsonLinesObserver implements IterationObserver, Closeable {
+  private final Writer out;
+
+  /**
+   * @param fp the file to append to
+   * @throws IOException
+   */
+  public JsonLinesObserver(String fp) throws IOException {
+    this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fp, true), StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public synchronized void iterationDone(IterationMetrics m) {
+    StringBuilder line = new StringBuilder(128 + m.getVectorCount() * 192);
+    line.append("{\"event\":\"iteration\",\"model\":\"").append(m.getModel()).append('"');
+    line.append(",\"iteration\":").append(m.getIteration());
+    line.append(",\"seconds\":").append(m.getNanos() / 1e9);
+    line.append(",\"edges\":").append(m.getEdges());
+    line.append(",\"edgesPerSecond\":");
+    number(m.getEdgesPerSecond(), line);
+    line.append(",\"allocatedBytes\":").append(m.getAllocatedBytes());
+    line.append(",\"vectors\":[");
+    for (int v = 0; v < m.getVectorCount(); v++) {
+      Residual r = m.getResidual(v);
+      if (v > 0) line.append(',');
+      line.append("{\"vector\":").append(m.getVector(v));
+      line.append(",\"measure\":");
+      number(m.getMeasure(v), line);
+      line.append(",\"l1\":");
+      number(r.getL1(), line);
+      line.append(",\"l2\":");
+      number(r.getL2(), line);
+      line.append(",\"linf\":");
+      number(r.getLinf(), line);
+      line.append(",\"rankMass\":");
+      number(m.getRankMass(v), line);
+      line.append(",\"danglingMass\":");
+      number(m.getDanglingMass(v), line);
+      line.append(",\"converged\":").append(m.isConverged(v)).append('}');
+    }
+    line.append("]}");
+    this.writeLine(line);
+  }
+
+  @Override
+  public synchronized void runDone(String model, int iterations, boolean converged, long nanos) {
+    StringBuilder line = new StringBuilder(96);
+    line.append("{\"event\":\"run\",\"model\":\"").append(model).append('"');
+    line.append(",\"iterations\":").append(iterations);
+    line.append(",\"converged\":").append(converged);
+    line.append(",\"seconds\":").append(nanos / 1e9).append('}');
+    this.writeLine(line);
+  }
+
+  /**
+   * JSON has no NaN or infinity
+   */
+  private static void number(double x, StringBuilder out) {
+    if (Double.isNaN(x) || Double.isInfinite(x)) {
+      out.append("null");
+    } else {
+      out.append(x);
+    }
+  }
+
+  private void writeLine(StringBuilder line) {
+    try {
+      line.append('\n');
+      this.out.write(line.toString());
+      this.out.flush();
+    } catch (IOException e) {
+      // the metrics must not stop the computation
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.out.close();
+  }
+}
@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts request latencies into fixed buckets, from 50 microseconds to 5 seconds, and
+ * writes them in the Prometheus text format. Recording is lock-free and can be done
+ * from any number of threads.
+ */
+public class LatencyHistogram {
+  // the upper bound of each bucket in microseconds; one more bucket holds the rest
+  private static final long[] BOUNDS_MICROS = {
+    50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000
+  };
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+
+  private final AtomicLong totalNanos = new AtomicLong();
+
+  /**
+   * count one latency
+   * @param nanos
+   */
+  public void record(long nanos) {
+    long micros = nanos / 1000;
+    int b = 0;
+    while (b < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[b]) {
+      b++;
+    }
+    this.counts.incrementAndGet(b);
+    this.totalNanos.addAndGet(nanos);
+  }
+
+  public long getCount() {
+    long res = 0;
+    for (int b = 0; b < this.counts.length(); b++) {
+      res += this.counts.get(b);
+    }
+    return res;
+  }
+
+  /**
+   * the upper bound of the bucket that holds the q-quantile, e.g. 0.99
+   * @param q
+   * @return the bound in microseconds, or Long.MAX_VALUE if it is past the last bound
+   */
+  public long getQuantileMicros(double q) {
+    long[] snapshot = new long[this.counts.length()];
+    long total = 0;
+    for (int b = 0; b < snapshot.length; b++) {
+      snapshot[b] = this.counts.get(b);
+      total += snapshot[b];
+    }
+
+    long rank = (long) Math.ceil(q * total);
+    long seen = 0;
+    for (int b = 0; b < BOUNDS_MICROS.length; b++) {
+      seen += snapshot[b];
+      if (seen >= rank) return BOUNDS_MICROS[b];
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * write the histogram in the Prometheus text format, without the HELP and TYPE lines
+   * @param name the metric name
+   * @param labels e.g. model="gpr", or empty
+   * @param out
+   */
+  public void write(String name, String labels, StringBuilder out) {
+    String prefix = labels.length() == 0 ? "" : labels + ",";
+    long cumulative = 0;
+    for (int b = 0; b < BOUNDS_MICROS.length; b++) {
+      cumulative += this.counts.get(b);
+      out.append(name).append("_bucket{").append(prefix).append("le=\"").append(BOUNDS_MICROS[b] / 1e6).append("\"} ").append(cumulative).append('\n');
+    }
+    cumulative += this.counts.get(BOUNDS_MICROS.length);
+    out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+    out.append(name).append("_sum{").append(labels).append("} ").append(this.totalNanos.get() / 1e9).append('\n');
+    out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+  }
+}
@@ -0,0 +1,198 @@
+import java.util.*;
+
+/**
+ * Approximate personalized pagerank by forward push (Andersen, Chung and Lang).
+ * The teleport distribution is given per query, and the work of a query is bounded
+ * by 1/(epsilon * (1 - alpha)) pushes whatever the size of the graph.
+ *
+ * The walk follows a link with probability alpha and otherwise jumps back to the
+ * teleport distribution. The uniform beta jump of TopicSensitivePageRank reaches
+ * every node and cannot be computed locally, so here it is part of the jump back.
+ * The score of a node without out links also jumps back to the teleport distribution;
+ * by linearity that scales the result by 1/(1 - c), where c is the share of the score
+ * that reached such nodes, so it is applied once at the end.
+ *
+ * An instance reuses its buffers between queries and is not thread-safe.
+ */
+public class LocalPushPageRank {
+  private SparseGraph graph;
+
+  // the probability of following a link
+  private double alpha;
+
+  // the approximate scores and residuals, only the touched entries are non-zero
+  private double[] scores;
+  private double[] residuals;
+
+  // the nodes with a non-zero score or residual
+  private int[] touched;
+  private int touchedCount;
+  private boolean[] visited;
+
+  // the nodes waiting to be pushed, as a ring buffer
+  private int[] queue;
+  private boolean[] queued;
+
+  // the number of pushes of the last query
+  private long pushes;
+
+  public LocalPushPageRank(SparseGraph g, double a) {
+    this.graph = g;
+    this.alpha = a;
+
+    int d = g.getDimension();
+    this.scores = new double[d];
+    this.residuals = new double[d];
+    this.touched = new int[d];
+    this.visited = new boolean[d];
+    this.queue = new int[d];
+    this.queued = new boolean[d];
+  }
+
+  /**
+   * compute the personalized pagerank of a teleport distribution
+   * @param teleport the teleport probability of each document, 1-based; it should add up to 1
+   * @param epsilon a node is pushed while its residual is above epsilon times its out degree
+   * @return the documents with a non-zero score, 1-based
+   */
+  public Map<Integer, Double> compute(Map<Integer, Double> teleport, double epsilon) {
+    int[] outOffsets = this.graph.getOutOffsets();
+    int[] outTargets = this.graph.getOutTargets();
+    int[] outDegree = this.graph.getOutDegree();
+    int d = this.graph.getDimension();
+
+    this.pushes = 0;
+    int head = 0;
+    int size = 0;
+    for (Map.Entry<Integer, Double> entry : teleport.entrySet()) {
+      int u = entry.getKey() - 1;
+      this.touch(u);
+      this.residuals[u] += entry.getValue();
+    }
+    for (int k = 0; k < this.touchedCount; k++) {
+      int u = this.touched[k];
+      if (this.residuals[u] > epsilon * Math.max(outDegree[u], 1)) {
+        this.queue[(head + size++) % d] = u;
+        this.queued[u] = true;
+      }
+    }
+
+    double nooutlink = 0.0; // the score that reached nodes without out links
+    while (size > 0) {
+      int u = this.queue[head];
+      head = (head + 1) % d;
+      size--;
+      this.queued[u] = false;
+
+      double r = this.residuals[u];
+      this.residuals[u] = 0.0;
+      this.scores[u] += (1.0 - this.alpha) * r;
+      this.pushes++;
+
+      if (outDegree[u] == 0) {
+        nooutlink += this.alpha * r;
+        continue;
+      }
+
+      double share = this.alpha * r / (double) outDegree[u];
+      for (int k = outOffsets[u]; k < outOffsets[u + 1]; k++) {
+        int v = outTargets[k];
+        this.touch(v);
+        this.residuals[v] += share;
+        if (!this.queued[v] && this.residuals[v] > epsilon * Math.max(outDegree[v], 1)) {
+          this.queue[(head + size++) % d] = v;
+          this.queued[v] = true;
+        }
+      }
+    }
+
+    // collect the result and clear the buffers for the next query
+    double scale = nooutlink < 1.0 ? 1.0 / (1.0 - nooutlink) : 1.0;
+    Map<Integer, Double> res = new HashMap<Integer, Double>();
+    for (int k = 0; k < this.touchedCount; k++) {
+      int u = this.touched[k];
+      if (this.scores[u] > 0.0) {
+        res.put(u + 1, this.scores[u] * scale);
+      }
+      this.scores[u] = 0.0;
+      this.residuals[u] = 0.0;
+      this.visited[u] = false;
+    }
+    this.touchedCount = 0;
+
+    return res;
+  }
+
+  private void touch(int u) {
+    if (!this.visited[u]) {
+      this.visited[u] = true;
+      this.touched[this.touchedCount++] = u;
+    }
+  }
+
+  public long getPushes() {
+    return this.pushes;
+  }
+
+  /**
+   * expand a topic distribution onto the documents of each topic
+   * @param topicDist the probability of each topic, topic i + 1 at index i
+   * @param topicDocuments
+   * @return the teleport probability of each document, 1-based
+   */
+  public static Map<Integer, Double> topicTeleport(List<Double> topicDist, Map<Integer, Set<Integer>> topicDocuments) {
+    Map<Integer, Double> res = new HashMap<Integer, Double>();
+
+    for (int i = 0; i < topicDist.size(); i++) {
+      Set<Integer> docs = topicDocuments.get(i + 1);
+      if (docs == null || topicDist.get(i) == 0.0) continue;
+
+      double share = topicDist.get(i) / (double) docs.size();
+      for (Integer docid : docs) {
+        Double prev = res.get(docid);
+        res.put(docid, prev == null ? share : prev + share);
+      }
+    }
+
+    return res;
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      System.err.println("Usage: <distribution_file> <user-query_id> <epsilon> [-topn <n>]");
+      return ;
+    }
+
+    String topicDistFilename = args[0];
+    String userqueryid = args[1];
+    double epsilon = Double.parseDouble(args[2]);
+    Map<String, String> options = Utilities.parseOptions(args, 3);
+    int topn = options.containsKey("topn") ? Integer.parseInt(options.get("topn")) : 10;
+
+    SparseGraph graph = Utilities.readSparseGraph("transition.txt", 81433);
+    Map<Integer, Set<Integer>> topicDocuments = Utilities.readTopicDocuments("doc_topics.txt");
+    Map<String, List<Double>> dist = Utilities.readTopicDist(topicDistFilename);
+    if (!dist.containsKey(userqueryid)) {
+      System.err.println("No topic distribution for " + userqueryid);
+      return ;
+    }
+
+    LocalPushPageRank ppr = new LocalPushPageRank(graph, 0.75);
+    long starttime = System.nanoTime();
+    Map<Integer, Double> scores = ppr.compute(topicTeleport(dist.get(userqueryid), topicDocuments), epsilon);
+    long elapsed = System.nanoTime() - starttime;
+
+    int[] docids = new int[scores.size()];
+    double[] values = new double[scores.size()];
+    int n = 0;
+    for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+      docids[n] = entry.getKey();
+      values[n++] = entry.getValue();
+    }
+    int[] best = TopK.select(values, 0, topn);
+    for (int i = 0; i < best.length; i++) {
+      System.out.println((i+1) + ", " + docids[best[i]] + ", " + values[best[i]]);
+    }
+    System.out.println(scores.size() + " documents scored with " + ppr.getPushes() + " pushes in " + (elapsed / 1000) + " us");
+  }
+}
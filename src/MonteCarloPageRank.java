@@ -0,0 +1,375 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Approximate personalized pagerank from precomputed random walk segments.
+ *
+ * Each node gets a fixed number of walk segments, generated once with the teleport
+ * semantics of TopicSensitivePageRank: at every step the walk follows a random out
+ * link with probability alpha (or jumps to a random node if there is none), jumps to
+ * a random node with probability beta, and ends, i.e. jumps back to the teleport
+ * distribution, with probability gama = 1 - alpha - beta. A segment is cut after
+ * segmentLength nodes; a query that reaches the end of a cut segment goes on with a
+ * segment of its last node. A walk is ended after maxStitches such stitches, about
+ * MAX_WALK_MEANS times its mean length, so that nodes whose segments are all cut and
+ * lead back among themselves cannot hold it forever; a walk ends that late with a
+ * probability of about e^-MAX_WALK_MEANS anyway.
+ *
+ * A query starts walks from nodes drawn from its teleport distribution. The expected
+ * number of visits to a node, times gama, is its personalized pagerank score.
+ *
+ * Segments are generated in parallel with one random generator per node seeded from
+ * the node id, so the index is the same for any thread count.
+ */
+public class MonteCarloPageRank {
+  // the length of the longest walk, in mean walk lengths 1 / gama
+  private static final int MAX_WALK_MEANS = 20;
+
+  private SparseGraph graph;
+
+  // the parameters
+  private double alpha;
+
+  private double beta;
+
+  private double gama;
+
+  // the number of segments per node and the maximal number of nodes in a segment
+  private int segments;
+
+  private int segmentLength;
+
+  // the most segments a walk goes on with after its first one
+  private int maxStitches;
+
+  // segment s of node u is walkNodes[walkOffsets[u * segments + s] .. walkOffsets[u * segments + s + 1])
+  private int[] walkOffsets;
+
+  private int[] walkNodes;
+
+  // whether a segment was cut rather than ended by a jump back
+  private boolean[] truncated;
+
+  // the visit counts of the current query, only the touched entries are non-zero
+  private int[] visits;
+
+  private int[] touched;
+
+  private int touchedCount;
+
+  // the documents of each topic, 0-based
+  private int[][] topicDocs;
+
+  public MonteCarloPageRank(SparseGraph g, double a, double b, int segs, int len, long seed, int threads) {
+    if (1.0 - a - b <= 0.0) {
+      throw new IllegalArgumentException("The walks never end with alpha " + a + " and beta " + b);
+    }
+    if (segs < 1) {
+      throw new IllegalArgumentException("Every node needs at least 1 segment: " + segs);
+    }
+    if (len < 2) {
+      throw new IllegalArgumentException("Segments must hold at least 2 nodes: " + len);
+    }
+    this.graph = g;
+    this.alpha = a;
+    this.beta = b;
+    this.gama = 1.0 - a - b;
+    this.segments = segs;
+    this.segmentLength = len;
+    // a stitched segment takes at most len - 1 steps
+    this.maxStitches = (int) Math.ceil(MAX_WALK_MEANS / (this.gama * (len - 1)));
+
+    this.visits = new int[g.getDimension()];
+    this.touched = new int[g.getDimension()];
+    ParallelSweep sweep = new ParallelSweep(g, threads);
+    try {
+      this.generateSegments(seed, sweep);
+    } finally {
+      sweep.close();
+    }
+  }
+
+  /**
+   * generate the walk segments of all the nodes
+   */
+  private void generateSegments(final long seed, ParallelSweep sweep) {
+    final int d = this.graph.getDimension();
+    final int[] outOffsets = this.graph.getOutOffsets();
+    final int[] outTargets = this.graph.getOutTargets();
+    final int[] outDegree = this.graph.getOutDegree();
+    final int segs = this.segments;
+    final int len = this.segmentLength;
+    final double a = this.alpha;
+    final double g = this.gama;
+
+    final int[] lengths = new int[d * segs];
+    final boolean[] cut = new boolean[d * segs];
+    final int[][] partNodes = new int[sweep.getPartCount()][];
+
+    // 1. walk from every node, each range into its own buffer
+    sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int[] buffer = new int[Math.max(16, (int) Math.min((long) (to - from) * segs * (long) Math.ceil(1.0 / g), Integer.MAX_VALUE - 8))];
+        int size = 0;
+
+        for (int u = from; u < to; u++) {
+          SplittableRandom random = new SplittableRandom(seed ^ (u * 0x9E3779B97F4A7C15L));
+          for (int s = 0; s < segs; s++) {
+            int cur = u;
+            int n = 0;
+            while (true) {
+              if (size == buffer.length) buffer = Arrays.copyOf(buffer, size * 2);
+              buffer[size++] = cur;
+              n++;
+
+              // a cut segment ends before the step, which the stitched segment takes
+              if (n == len) {
+                cut[u * segs + s] = true;
+                break;
+              }
+              double x = random.nextDouble();
+              if (x < g) break;
+              if (x < g + a && outDegree[cur] > 0) {
+                cur = outTargets[outOffsets[cur] + random.nextInt(outDegree[cur])];
+              } else {
+                cur = random.nextInt(d);
+              }
+            }
+            lengths[u * segs + s] = n;
+          }
+        }
+
+        partNodes[part] = Arrays.copyOf(buffer, size);
+      }
+
+    });
+
+    // 2. lay the buffers out in node order
+    int[] offsets = new int[d * segs + 1];
+    for (int k = 0; k < d * segs; k++) {
+      offsets[k + 1] = offsets[k] + lengths[k];
+    }
+    int[] nodes = new int[offsets[d * segs]];
+    int pos = 0;
+    for (int[] buffer : partNodes) {
+      System.arraycopy(buffer, 0, nodes, pos, buffer.length);
+      pos += buffer.length;
+    }
+
+    this.walkOffsets = offsets;
+    this.walkNodes = nodes;
+    this.truncated = cut;
+  }
+
+  /**
+   * set the documents of each topic, for queries given as a topic distribution
+   * @param tds the topic-document relation, as read by Utilities.readTopicDocuments
+   * @param tn the number of topics
+   */
+  public void setTopicDocuments(Map<Integer, Set<Integer>> tds, int tn) {
+    this.topicDocs = new int[tn][];
+    for (int i = 0; i < tn; i++) {
+      Set<Integer> docs = tds.containsKey(i + 1) ? tds.get(i + 1) : Collections.<Integer>emptySet();
+      this.topicDocs[i] = new int[docs.size()];
+      int k = 0;
+      for (Integer docid : docs) {
+        this.topicDocs[i][k++] = docid - 1;
+      }
+      Arrays.sort(this.topicDocs[i]);
+    }
+  }
+  
+  /**
+   * run the walks of a query and count the visits. the start nodes are drawn from
+   * cumulative, over the starts, or over the groups and then uniformly within the group.
+   */
+  private void runWalks(int[] starts, int[][] groups, double[] cumulative, int walks, long seed) {
+    double total = cumulative.length == 0 ? 0.0 : cumulative[cumulative.length - 1];
+
+    SplittableRandom random = new SplittableRandom(seed);
+    for (int w = 0; w < walks && total > 0.0; w++) {
+      int pick = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+      pick = pick >= 0 ? pick : Math.min(-pick - 1, cumulative.length - 1);
+      int u = groups == null ? starts[pick] : groups[pick][random.nextInt(groups[pick].length)];
+
+      // the first node of a stitched segment is the last node of the one before
+      boolean first = true;
+      int stitches = 0;
+      while (true) {
+        int seg = u * this.segments + random.nextInt(this.segments);
+        for (int e = this.walkOffsets[seg] + (first ? 0 : 1); e < this.walkOffsets[seg + 1]; e++) {
+          int v = this.walkNodes[e];
+          if (this.visits[v]++ == 0) this.touched[this.touchedCount++] = v;
+        }
+        if (!this.truncated[seg] || stitches == this.maxStitches) break;
+        u = this.walkNodes[this.walkOffsets[seg + 1] - 1];
+        first = false;
+        stitches++;
+      }
+    }
+  }
+  
+  private void runWalks(Map<Integer, Double> teleport, int walks, long seed) {
+    int[] starts = new int[teleport.size()];
+    double[] cumulative = new double[teleport.size()];
+    double total = 0.0;
+    int k = 0;
+    for (Map.Entry<Integer, Double> entry : teleport.entrySet()) {
+      total += entry.getValue();
+      starts[k] = entry.getKey() - 1;
+      cumulative[k] = total;
+      k++;
+    }
+    this.runWalks(starts, null, cumulative, walks, seed);
+  }
+  
+  private void runWalks(List<Double> topicDist, int walks, long seed) {
+    if (this.topicDocs == null) {
+      throw new IllegalStateException("setTopicDocuments() has not been called");
+    }
+    double[] cumulative = new double[this.topicDocs.length];
+    double total = 0.0;
+    for (int i = 0; i < this.topicDocs.length; i++) {
+      // topics without documents are never drawn
+      if (this.topicDocs[i].length > 0) total += topicDist.get(i);
+      cumulative[i] = total;
+    }
+    this.runWalks(null, this.topicDocs, cumulative, walks, seed);
+  }
+
+  /**
+   * estimate the personalized pagerank of a teleport distribution
+   * @param teleport the teleport probability of each document, 1-based
+   * @param walks the number of walks to run
+   * @param seed the seed of the query's random generator
+   * @return the documents with a non-zero estimate, 1-based
+   */
+  public Map<Integer, Double> estimate(Map<Integer, Double> teleport, int walks, long seed) {
+    this.runWalks(teleport, walks, seed);
+
+    Map<Integer, Double> res = new HashMap<Integer, Double>();
+    for (int k = 0; k < this.touchedCount; k++) {
+      int v = this.touched[k];
+      res.put(v + 1, this.gama * this.visits[v] / (double) walks);
+      this.visits[v] = 0;
+    }
+    this.touchedCount = 0;
+
+    return res;
+  }
+
+  /**
+   * estimate the personalized pagerank of some candidate documents
+   * @param docids the candidates, 1-based
+   * @param teleport the teleport probability of each document, 1-based
+   * @param walks the number of walks to run
+   * @param seed the seed of the query's random generator
+   * @return the estimates in the order of the candidates
+   */
+  public double[] estimate(int[] docids, Map<Integer, Double> teleport, int walks, long seed) {
+    this.runWalks(teleport, walks, seed);
+    return this.collect(docids, walks);
+  }
+
+  /**
+   * read the estimates of the candidates and clear the visit counts
+   */
+  private double[] collect(int[] docids, int walks) {
+    double[] res = new double[docids.length];
+    for (int k = 0; k < docids.length; k++) {
+      res[k] = this.gama * this.visits[docids[k] - 1] / (double) walks;
+    }
+    for (int k = 0; k < this.touchedCount; k++) {
+      this.visits[this.touched[k]] = 0;
+    }
+    this.touchedCount = 0;
+
+    return res;
+  }
+
+  /**
+   * estimate the topic-sensitive pagerank of some candidate documents, for a query given
+   * as a topic distribution. a topic is drawn first and then one of its documents, which
+   * avoids expanding the distribution onto the documents.
+   * @param docids the candidates, 1-based
+   * @param topicDist the probability of each topic, topic i + 1 at index i
+   * @param walks the number of walks to run
+   * @param seed the seed of the query's random generator
+   * @return the estimates in the order of the candidates
+   */
+  public double[] estimate(int[] docids, List<Double> topicDist, int walks, long seed) {
+    this.runWalks(topicDist, walks, seed);
+    return this.collect(docids, walks);
+  }
+
+  /**
+   * the approximate heap footprint of the walk index in bytes
+   * @return
+   */
+  public long getMemoryBytes() {
+    return 4L * (this.walkOffsets.length + this.walkNodes.length) + this.truncated.length;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: <distribution_file> <result_file> [-walks <n>] [-segments <n>] [-length <n>] [-seed <n>] [-threads <n>] [-topn <n>] [-repeat <n>]");
+      return ;
+    }
+
+    String topicDistFilename = args[0];
+    File resultFile = new File(args[1]);
+    Map<String, String> options = Utilities.parseOptions(args, 2);
+    int walks = options.containsKey("walks") ? Integer.parseInt(options.get("walks")) : 2000;
+    int segs = options.containsKey("segments") ? Integer.parseInt(options.get("segments")) : 16;
+    int len = options.containsKey("length") ? Integer.parseInt(options.get("length")) : 16;
+    long seed = options.containsKey("seed") ? Long.parseLong(options.get("seed")) : 1L;
+    int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : 1;
+    int topn = options.containsKey("topn") ? Integer.parseInt(options.get("topn")) : 10;
+    int repeat = options.containsKey("repeat") ? Integer.parseInt(options.get("repeat")) : 1;
+
+    SparseGraph graph = Utilities.readSparseGraph("transition.txt", 81433);
+    Map<Integer, Set<Integer>> topicDocuments = Utilities.readTopicDocuments("doc_topics.txt");
+    Map<String, List<Double>> dist = Utilities.readTopicDist(topicDistFilename);
+    String userqueryid = resultFile.getName().substring(0, resultFile.getName().indexOf('.'));
+    if (!dist.containsKey(userqueryid)) {
+      System.err.println("No topic distribution for " + userqueryid);
+      return ;
+    }
+
+    long starttime = System.currentTimeMillis();
+    MonteCarloPageRank mc = new MonteCarloPageRank(graph, 0.75, 0.15, segs, len, seed, threads);
+    System.out.println("Walk index built in " + (System.currentTimeMillis() - starttime) + " ms, " + mc.getMemoryBytes() + " bytes");
+
+    // the candidates of the result list
+    int[] docids = new int[64];
+    int n = 0;
+    ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(resultFile));
+    while (tokenizer.hasNext()) {
+      tokenizer.skipToken();
+      tokenizer.skipToken();
+      if (n == docids.length) docids = Arrays.copyOf(docids, n * 2);
+      docids[n++] = tokenizer.nextInt();
+      tokenizer.skipLine();
+    }
+    tokenizer.close();
+    docids = Arrays.copyOf(docids, n);
+
+    // the first queries run before the JIT has compiled the walk loop
+    mc.setTopicDocuments(topicDocuments, dist.get(userqueryid).size());
+    double[] scores = null;
+    long querytime = 0;
+    for (int r = 0; r < repeat; r++) {
+      querytime = System.nanoTime();
+      scores = mc.estimate(docids, dist.get(userqueryid), walks, seed);
+      querytime = System.nanoTime() - querytime;
+    }
+
+    int[] best = TopK.select(scores, 0, topn);
+    for (int i = 0; i < best.length; i++) {
+      System.out.println((i+1) + ", " + docids[best[i]] + ", " + scores[best[i]]);
+    }
+    System.out.println(docids.length + " candidates scored with " + walks + " walks in " + (querytime / 1000) + " us");
+  }
+}
@@ -0,0 +1,142 @@
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a task over the nodes of a graph on a fork-join pool. The nodes are split
+ * into contiguous ranges carrying about the same number of in links, which is the
+ * work of one row of the sparse M^T * r product.
+ *
+ * For a given thread count every range always covers the same nodes, and callers
+ * reduce per-range partial results in range order (see Residual.sum()), so the results are
+ * bitwise identical from run to run. With one thread the task runs inline.
+ *
+ * The pool lives until close(), which the owner of the sweep calls once it is done.
+ */
+public class ParallelSweep implements Closeable {
+
+  /**
+   * the work done on the nodes [from, to) of range number part
+   */
+  interface RangeTask {
+    void run(int part, int from, int to);
+  }
+
+  // the number of ranges per thread, so that a slow range does not stall the sweep
+  private static final int RANGES_PER_THREAD = 4;
+
+  private final int threads;
+
+  // range p covers the nodes [bounds[p], bounds[p+1])
+  private final int[] bounds;
+
+  private final ForkJoinPool pool;
+
+  // one worker per range, all running the current task
+  private final List<Callable<Object>> workers;
+
+  private volatile RangeTask task;
+
+  public ParallelSweep(SparseGraph graph, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive: " + threads);
+    }
+    this.threads = threads;
+    this.bounds = partition(graph.getInOffsets(), graph.getDimension(), threads == 1 ? 1 : threads * RANGES_PER_THREAD);
+    this.workers = new ArrayList<Callable<Object>>();
+    if (threads == 1) {
+      this.pool = null;
+      return;
+    }
+
+    this.pool = new ForkJoinPool(threads);
+    for (int p = 0; p < this.getPartCount(); p++) {
+      final int part = p;
+      this.workers.add(new Callable<Object>() {
+
+        @Override
+        public Object call() {
+          task.run(part, bounds[part], bounds[part + 1]);
+          return null;
+        }
+
+      });
+    }
+  }
+
+  /**
+   * split the nodes into parts, weighing each node by its in links plus one
+   * @param inOffsets
+   * @param d
+   * @param parts
+   * @return
+   */
+  static int[] partition(int[] inOffsets, int d, int parts) {
+    int[] res = new int[parts + 1];
+    long total = (long) inOffsets[d] + d;
+
+    int node = 0;
+    for (int p = 1; p < parts; p++) {
+      long target = total * p / parts;
+      while (node < d && (long) inOffsets[node] + node < target) {
+        node++;
+      }
+      res[p] = node;
+    }
+    res[parts] = d;
+
+    return res;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getPartCount() {
+    return bounds.length - 1;
+  }
+
+  /**
+   * run the task over all the ranges and wait for it to finish
+   * @param t
+   */
+  public void run(RangeTask t) {
+    if (this.pool == null) {
+      t.run(0, bounds[0], bounds[1]);
+      return;
+    }
+
+    this.task = t;
+    try {
+      for (Future<Object> f : this.pool.invokeAll(this.workers)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the sweep", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Sweep failed", e.getCause());
+    } finally {
+      this.task = null;
+    }
+  }
+
+  /**
+   * split the nodes of a new graph of the same size into as many ranges as before,
+   * keeping the pool; not while the sweep is running
+   * @param graph
+   */
+  public void repartition(SparseGraph graph) {
+    int[] res = partition(graph.getInOffsets(), graph.getDimension(), this.getPartCount());
+    System.arraycopy(res, 0, this.bounds, 0, res.length);
+  }
+
+  /**
+   * shut the pool down once the running sweep, if any, is over; the sweep must not
+   * be run afterwards
+   */
+  @Override
+  public void close() {
+    if (this.pool != null) this.pool.shutdown();
+  }
+}
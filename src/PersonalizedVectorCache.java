@@ -0,0 +1,162 @@
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Keeps the personalized pagerank vector of recent user-queries, the topic vectors
+ * combined by the topic distribution of the user-query, so that scoring a document of
+ * a cached user-query is one array lookup instead of a sum over the topics.
+ *
+ * The cache holds as many vectors as fit in a byte budget and evicts the least
+ * recently used ones. It is safe to use from several threads; a vector is combined
+ * outside the lock, so two threads missing the same key at once may both combine it.
+ */
+public class PersonalizedVectorCache {
+  // the object header and length of a double[]
+  private static final long ARRAY_OVERHEAD_BYTES = 16;
+
+  private final List<RankVector> vectors;
+
+  private final Map<String, List<Double>> topicDist;
+
+  private final long budgetBytes;
+
+  // in access order, the least recently used first
+  private final LinkedHashMap<String, double[]> entries = new LinkedHashMap<String, double[]>(16, 0.75f, true);
+
+  private long usedBytes;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param topicVectors
+   * @param dist the topic distribution of each user-query
+   * @param budgetBytes
+   */
+  public PersonalizedVectorCache(List<RankVector> topicVectors, Map<String, List<Double>> dist, long budgetBytes) {
+    if (budgetBytes < 0) {
+      throw new IllegalArgumentException("Cache budget must not be negative: " + budgetBytes);
+    }
+    this.vectors = topicVectors;
+    this.topicDist = dist;
+    this.budgetBytes = budgetBytes;
+  }
+
+  /**
+   * the personalized vector of a user-query, the score of document d at index d - 1.
+   * the array is shared and must not be modified
+   * @param userqueryid
+   * @return
+   */
+  public double[] get(String userqueryid) {
+    synchronized (this) {
+      double[] res = this.entries.get(userqueryid);
+      if (res != null) {
+        this.hits++;
+        return res;
+      }
+      this.misses++;
+    }
+
+    double[] res = this.combine(userqueryid);
+    this.put(userqueryid, res);
+    return res;
+  }
+
+  /**
+   * combine the vectors of the given user-queries ahead of the requests, as far as the budget allows
+   * @param userqueryids
+   * @return the number of vectors combined
+   */
+  public int precompute(Collection<String> userqueryids) {
+    int n = 0;
+    for (String userqueryid : userqueryids) {
+      synchronized (this) {
+        if (this.entries.containsKey(userqueryid)) continue;
+        if (this.usedBytes + bytes(this.vectors.get(0).size()) > this.budgetBytes) break;
+      }
+      this.put(userqueryid, this.combine(userqueryid));
+      n++;
+    }
+    return n;
+  }
+
+  private double[] combine(String userqueryid) {
+    List<Double> dist = this.topicDist.get(userqueryid);
+    if (dist == null || dist.size() < this.vectors.size()) {
+      throw new IllegalArgumentException("No topic distribution for " + userqueryid);
+    }
+
+    // add the topics in order, so every score is the same sum ReRanker computes per document
+    double[] res = new double[this.vectors.get(0).size()];
+    for (int t = 0; t < this.vectors.size(); t++) {
+      RankVector v = this.vectors.get(t);
+      double weight = dist.get(t);
+      for (int i = 0; i < res.length; i++) {
+        res[i] += weight * v.get(i);
+      }
+    }
+    return res;
+  }
+
+  private synchronized void put(String userqueryid, double[] vector) {
+    long size = bytes(vector.length);
+    if (size > this.budgetBytes || this.entries.containsKey(userqueryid)) return;
+
+    Iterator<Entry<String, double[]>> it = this.entries.entrySet().iterator();
+    while (this.usedBytes + size > this.budgetBytes && it.hasNext()) {
+      this.usedBytes -= bytes(it.next().getValue().length);
+      it.remove();
+      this.evictions++;
+    }
+    this.entries.put(userqueryid, vector);
+    this.usedBytes += size;
+  }
+
+  private static long bytes(int d) {
+    return ARRAY_OVERHEAD_BYTES + 8L * d;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized int getSize() {
+    return this.entries.size();
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /**
+   * write the counters in the Prometheus text format
+   * @param name the metric name prefix
+   * @param out
+   */
+  public synchronized void write(String name, StringBuilder out) {
+    out.append("# TYPE ").append(name).append("_hits_total counter\n");
+    out.append(name).append("_hits_total ").append(this.hits).append('\n');
+    out.append("# TYPE ").append(name).append("_misses_total counter\n");
+    out.append(name).append("_misses_total ").append(this.misses).append('\n');
+    out.append("# TYPE ").append(name).append("_evictions_total counter\n");
+    out.append(name).append("_evictions_total ").append(this.evictions).append('\n');
+    out.append("# TYPE ").append(name).append("_entries gauge\n");
+    out.append(name).append("_entries ").append(this.entries.size()).append('\n');
+    out.append("# TYPE ").append(name).append("_bytes gauge\n");
+    out.append(name).append("_bytes ").append(this.usedBytes).append('\n');
+  }
+}
@@ -0,0 +1,116 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * the latest iteration of each model as gauges in the Prometheus text format. with a
+ * file the metrics are rewritten after every iteration, by writing a temporary file and
+ * renaming it so a scraper never reads half a file, e.g. for the textfile collector of
+ * the node exporter; the scoring server also appends them to its /metrics.
+ */
+public class PrometheusTextObserver implements IterationObserver {
+  // the file to rewrite, or null to keep the metrics in memory only
+  private final String fp;
+
+  // the last iteration and the state of the last run of each model
+  private final Map<String, IterationMetrics> latest = new LinkedHashMap<String, IterationMetrics>();
+
+  private final Map<String, Boolean> converged = new HashMap<String, Boolean>();
+
+  public PrometheusTextObserver(String fp) {
+    this.fp = fp;
+  }
+
+  @Override
+  public synchronized void iterationDone(IterationMetrics m) {
+    this.latest.put(m.getModel(), m);
+    this.converged.remove(m.getModel());
+    this.writeFile();
+  }
+
+  @Override
+  public synchronized void runDone(String model, int iterations, boolean converged, long nanos) {
+    this.converged.put(model, converged);
+    this.writeFile();
+  }
+
+  /**
+   * append the metrics
+   * @param out
+   */
+  public synchronized void write(StringBuilder out) {
+    gauge("pagerank_iteration", "The last iteration of the current or last run.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      out.append("pagerank_iteration{model=\"").append(m.getModel()).append("\"} ").append(m.getIteration()).append('\n');
+    }
+    gauge("pagerank_converged", "1 if the last run converged, 0 if it stopped at a limit, absent while running.", out);
+    for (Entry<String, Boolean> entry : this.converged.entrySet()) {
+      out.append("pagerank_converged{model=\"").append(entry.getKey()).append("\"} ").append(entry.getValue() ? 1 : 0).append('\n');
+    }
+    gauge("pagerank_iteration_seconds", "The duration of the last iteration.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      out.append("pagerank_iteration_seconds{model=\"").append(m.getModel()).append("\"} ").append(m.getNanos() / 1e9).append('\n');
+    }
+    gauge("pagerank_edges_per_second", "Edge updates per second in the last iteration, the edges times the vectors.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      out.append("pagerank_edges_per_second{model=\"").append(m.getModel()).append("\"} ").append(m.getEdgesPerSecond()).append('\n');
+    }
+    gauge("pagerank_allocated_bytes", "Bytes allocated during the last iteration, -1 if unknown.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      out.append("pagerank_allocated_bytes{model=\"").append(m.getModel()).append("\"} ").append(m.getAllocatedBytes()).append('\n');
+    }
+    gauge("pagerank_residual", "The residual of each vector updated in the last iteration, as the criterion measures it.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      for (int v = 0; v < m.getVectorCount(); v++) {
+        sample("pagerank_residual", m, v, m.getMeasure(v), out);
+      }
+    }
+    gauge("pagerank_rank_mass", "The sum of the scores of each vector updated in the last iteration.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      for (int v = 0; v < m.getVectorCount(); v++) {
+        sample("pagerank_rank_mass", m, v, m.getRankMass(v), out);
+      }
+    }
+    gauge("pagerank_dangling_mass", "The score of the nodes without out links redistributed in the last iteration.", out);
+    for (IterationMetrics m : this.latest.values()) {
+      for (int v = 0; v < m.getVectorCount(); v++) {
+        sample("pagerank_dangling_mass", m, v, m.getDanglingMass(v), out);
+      }
+    }
+  }
+
+  private static void gauge(String name, String help, StringBuilder out) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" gauge\n");
+  }
+
+  private static void sample(String name, IterationMetrics m, int v, double value, StringBuilder out) {
+    out.append(name).append("{model=\"").append(m.getModel()).append("\",vector=\"").append(m.getVector(v)).append("\"} ");
+    if (Double.isNaN(value)) {
+      out.append("NaN");
+    } else if (Double.isInfinite(value)) {
+      out.append(value > 0 ? "+Inf" : "-Inf");
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+
+  private void writeFile() {
+    if (this.fp == null) return;
+
+    StringBuilder out = new StringBuilder(4096);
+    this.write(out);
+    try {
+      Path target = Paths.get(this.fp).toAbsolutePath();
+      Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+      Files.write(temp, out.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // the metrics must not stop the computation
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The converged pagerank vectors of an engine, saved so that a later run on the same
+ * graph with the same parameters can skip the solve, or start close to the answer
+ * when the graph has changed a little. The parameters end with those of the stopping
+ * criterion, which decides how close the vectors are to the answer.
+ *
+ * Layout, all little-endian:
+ *   int magic "PPRS", int version, int dimension, int vector count, long fingerprint,
+ *   int parameter count, double[parameter count] parameters, long CRC32 of the payload
+ *   double[vector count * dimension] the vectors one after another
+ */
+public class RankSnapshot {
+  private static final int MAGIC = 0x50505253;
+
+  private static final int VERSION = 1;
+
+  // the number of values read or written at once
+  private static final int BLOCK_VALUES = 1 << 17;
+
+  /**
+   * how a snapshot relates to an engine
+   */
+  public enum Match {
+    // missing, unreadable, or computed with other parameters
+    NONE,
+    // computed on another graph or with another stopping criterion, loaded as the
+    // starting point of run()
+    WARM_START,
+    // computed on the same graph with the same parameters, run() is not needed
+    EXACT
+  }
+
+  // identifies the input the vectors were computed from, see AbstractPageRank.getFingerprint()
+  private final long fingerprint;
+
+  private final double[] parameters;
+
+  private final int dimension;
+
+  // the vectors one after another, vector v of node i at v * dimension + i
+  private final double[] values;
+
+  public RankSnapshot(long fingerprint, double[] parameters, int dimension, double[] values) {
+    if (dimension <= 0 || values.length % dimension != 0) {
+      throw new IllegalArgumentException("Expected whole vectors of " + dimension + " values, got " + values.length);
+    }
+    this.fingerprint = fingerprint;
+    this.parameters = parameters.clone();
+    this.dimension = dimension;
+    this.values = values;
+  }
+
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  public double[] getParameters() {
+    return parameters.clone();
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public int getVectorCount() {
+    return values.length / dimension;
+  }
+
+  // shared, not copied
+  double[] getValues() {
+    return values;
+  }
+
+  /**
+   * judge how the snapshot can be used by an engine with the given input
+   * @param fp the fingerprint of the engine
+   * @param params the parameters of the model
+   * @param accuracy the parameters of the stopping criterion, which follow those of the
+   * model in the snapshot; NaN never matches
+   * @param d
+   * @param vectors
+   * @return
+   */
+  public Match match(long fp, double[] params, double[] accuracy, int d, int vectors) {
+    if (d != this.dimension || vectors != this.getVectorCount() || this.parameters.length != params.length + accuracy.length
+        || !Arrays.equals(params, Arrays.copyOf(this.parameters, params.length))) {
+      return Match.NONE;
+    }
+    for (int k = 0; k < accuracy.length; k++) {
+      if (accuracy[k] != this.parameters[params.length + k]) return Match.WARM_START;
+    }
+    return fp == this.fingerprint ? Match.EXACT : Match.WARM_START;
+  }
+
+  /**
+   * write the snapshot to a file
+   * @param fp
+   * @throws IOException
+   */
+  public void write(String fp) throws IOException {
+    // write a temporary file and move it in place, so a reader never sees half a snapshot
+    Path target = Paths.get(fp).toAbsolutePath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      int headerBytes = headerBytes(this.parameters.length);
+      CRC32 crc = new CRC32();
+      ByteBuffer buffer = ByteBuffer.allocate(8 * BLOCK_VALUES).order(ByteOrder.LITTLE_ENDIAN);
+      channel.position(headerBytes);
+      for (int k = 0; k < this.values.length; k += BLOCK_VALUES) {
+        int n = Math.min(BLOCK_VALUES, this.values.length - k);
+        buffer.clear();
+        buffer.asDoubleBuffer().put(this.values, k, n);
+        buffer.limit(8 * n);
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(this.dimension).putInt(this.getVectorCount()).putLong(this.fingerprint);
+      header.putInt(this.parameters.length);
+      for (double p : this.parameters) {
+        header.putDouble(p);
+      }
+      header.putLong(crc.getValue());
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+    } finally {
+      channel.close();
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static int headerBytes(int parameterCount) {
+    return 4 * 4 + 8 + 4 + 8 * parameterCount + 8;
+  }
+
+  /**
+   * read a snapshot file
+   * @param fp
+   * @return
+   * @throws IOException if the file is not a valid snapshot
+   */
+  public static RankSnapshot read(String fp) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(fp), StandardOpenOption.READ);
+    try {
+      ByteBuffer start = ByteBuffer.allocate(headerBytes(0)).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, start, 0, fp);
+      if (start.getInt(0) != MAGIC) {
+        throw new IOException(fp + " is not a snapshot file");
+      }
+      if (start.getInt(4) != VERSION) {
+        throw new IOException(fp + " has version " + start.getInt(4) + ", expected " + VERSION);
+      }
+      int d = start.getInt(8);
+      int vectors = start.getInt(12);
+      long fingerprint = start.getLong(16);
+      int parameterCount = start.getInt(24);
+      if (d <= 0 || vectors <= 0 || parameterCount < 0 || parameterCount > 64) {
+        throw new IOException(fp + " has a malformed header");
+      }
+      int headerBytes = headerBytes(parameterCount);
+      if ((long) d * vectors > Integer.MAX_VALUE - 8) {
+        throw new IOException(fp + " holds too many values");
+      }
+      long expected = headerBytes + 8L * d * vectors;
+      if (channel.size() != expected) {
+        throw new IOException(fp + " has " + channel.size() + " bytes, expected " + expected);
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header, 0, fp);
+      double[] parameters = new double[parameterCount];
+      for (int k = 0; k < parameterCount; k++) {
+        parameters[k] = header.getDouble(28 + 8 * k);
+      }
+      long checksum = header.getLong(headerBytes - 8);
+
+      double[] values = new double[d * vectors];
+      CRC32 crc = new CRC32();
+      ByteBuffer buffer = ByteBuffer.allocate(8 * BLOCK_VALUES).order(ByteOrder.LITTLE_ENDIAN);
+      for (int k = 0; k < values.length; k += BLOCK_VALUES) {
+        int n = Math.min(BLOCK_VALUES, values.length - k);
+        buffer.clear();
+        buffer.limit(8 * n);
+        readFully(channel, buffer, headerBytes + 8L * k, fp);
+        crc.update(buffer.duplicate());
+        buffer.asDoubleBuffer().get(values, k, n);
+      }
+      if (crc.getValue() != checksum) {
+        throw new IOException(fp + " is corrupt, the checksum does not match");
+      }
+
+      return new RankSnapshot(fingerprint, parameters, d, values);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long pos, String fp) throws IOException {
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, pos + dst.position());
+      if (n < 0) {
+        throw new IOException(fp + " is truncated");
+      }
+    }
+    dst.flip();
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * A read-only view of a pagerank vector, the score of document d is at index d - 1.
+ * The view is backed by one of the engine's two buffers, which swap roles every
+ * iteration, so it is only valid from the return of run() or applyEdgeDelta() until
+ * the engine is changed again; a view taken before must be fetched again. A view of a
+ * CompactRankVectors, whose scores are floats or 16-bit codes of the logarithm, does
+ * not change.
+ */
+public final class RankVector {
+  // exactly one of values, floats and codes holds the scores
+  private final double[] values;
+
+  private final float[] floats;
+
+  // the scores of codes, by the code as an unsigned number
+  private final short[] codes;
+  private final double[] table;
+
+  // the position of the first score in the buffer and the distance between scores
+  private final int offset;
+  private final int stride;
+
+  private final int size;
+
+  RankVector(double[] values) {
+    this(values, 0, 1, values.length);
+  }
+
+  RankVector(double[] values, int offset, int stride, int size) {
+    this(values, null, null, null, offset, stride, size);
+  }
+
+  RankVector(float[] floats, int offset, int stride, int size) {
+    this(null, floats, null, null, offset, stride, size);
+  }
+
+  RankVector(short[] codes, double[] table, int offset, int stride, int size) {
+    this(null, null, codes, table, offset, stride, size);
+  }
+
+  private RankVector(double[] values, float[] floats, short[] codes, double[] table, int offset, int stride, int size) {
+    this.values = values;
+    this.floats = floats;
+    this.codes = codes;
+    this.table = table;
+    this.offset = offset;
+    this.stride = stride;
+    this.size = size;
+  }
+
+  public double get(int i) {
+    int at = offset + i * stride;
+    if (values != null) return values[at];
+    if (floats != null) return floats[at];
+    return table[codes[at] & 0xFFFF];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * one page of the leaderboard, without sorting the whole vector
+   * @param offset the rank of the first entry, 0-based
+   * @param k the page size
+   * @return the indices by decreasing score, lower indices first on ties; document d is at d - 1
+   */
+  public int[] top(int offset, int k) {
+    return TopK.select(this, offset, k);
+  }
+
+  /**
+   * copy the values out of the view
+   * @return
+   */
+  public double[] toArray() {
+    double[] res = new double[size];
+    for (int i = 0; i < size; i++) {
+      res[i] = this.get(i);
+    }
+    return res;
+  }
+}
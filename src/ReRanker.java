@@ -0,0 +1,279 @@
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Re-ranks the result list of a user-query by combining the retrieval score of each
+ * document with its pagerank score, the global one or the topic-sensitive one weighted
+ * by the topic distribution of the user-query. The methods are
+ *   1: the pagerank score alone
+ *   2: 0.2 * pagerank + 0.8 * retrieval score
+ *   3: the same weights on min-max normalized scores
+ * and the weights can be changed with setWeights().
+ *
+ * A result list is scored in a CandidateList, in two loops over its primitive arrays:
+ * one looks up the pagerank scores and the ranges of both scores, the other combines
+ * them. The second has no branches and is left to the vectorization of the JIT.
+ *
+ * An instance only reads the vectors it was given, so it can serve many threads once
+ * the vectors have converged.
+ */
+public class ReRanker {
+  // the pagerank vectors, one for GPR or one per topic for TSPR
+  private final RankVector[] vectors;
+
+  // the topic distribution of each user-query, null for GPR
+  private final Map<String, List<Double>> topicDist;
+
+  // the combined vectors of recent user-queries, null to sum the topics per document
+  private final PersonalizedVectorCache cache;
+
+  // the weights of the pagerank and the retrieval scores in methods 2 and 3
+  private double pagerankWeight = 0.2;
+
+  private double retrievalWeight = 0.8;
+
+  public ReRanker(RankVector scores) {
+    this.vectors = new RankVector[] { scores };
+    this.topicDist = null;
+    this.cache = null;
+  }
+
+  public ReRanker(List<RankVector> topicVectors, Map<String, List<Double>> dist) {
+    this(topicVectors, dist, null);
+  }
+
+  /**
+   * @param topicVectors
+   * @param dist
+   * @param cache the combined vectors of the user-queries, worth it when the same user-queries come back
+   */
+  public ReRanker(List<RankVector> topicVectors, Map<String, List<Double>> dist, PersonalizedVectorCache cache) {
+    this.vectors = topicVectors.toArray(new RankVector[topicVectors.size()]);
+    this.topicDist = dist;
+    this.cache = cache;
+  }
+
+  /**
+   * set the weights of methods 2 and 3, before the instance is shared between threads
+   * @param pagerank
+   * @param retrieval
+   */
+  public void setWeights(double pagerank, double retrieval) {
+    this.pagerankWeight = pagerank;
+    this.retrievalWeight = retrieval;
+  }
+
+  public PersonalizedVectorCache getCache() {
+    return cache;
+  }
+
+  /**
+   * the pagerank score of a document for a user-query
+   * @param userqueryid
+   * @param docid 1-based
+   * @return
+   */
+  public double getPageRankScore(String userqueryid, int docid) {
+    if (this.topicDist == null) {
+      return this.vectors[0].get(docid - 1);
+    }
+    if (this.cache != null) {
+      return this.cache.get(userqueryid)[docid - 1];
+    }
+    return this.getPageRankScore(docid, null, this.getTopicWeights(userqueryid));
+  }
+
+  /**
+   * the pagerank score of a document from the personalized vector of the user-query if
+   * there is one, else from the topic weights if there are some, else from the only vector
+   */
+  private double getPageRankScore(int docid, double[] personalized, double[] weights) {
+    if (personalized != null) {
+      return personalized[docid - 1];
+    }
+    if (weights == null) {
+      return this.vectors[0].get(docid - 1);
+    }
+    double score = 0.0;
+    for (int i = 0; i < weights.length; i++) {
+      score += weights[i] * this.vectors[i].get(docid - 1);
+    }
+    return score;
+  }
+
+  private double[] getTopicWeights(String userqueryid) {
+    List<Double> dist = this.topicDist.get(userqueryid);
+    if (dist == null || dist.size() < this.vectors.length) {
+      throw new IllegalArgumentException("No topic distribution for " + userqueryid);
+    }
+    double[] res = new double[this.vectors.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = dist.get(i);
+    }
+    return res;
+  }
+
+  /**
+   * check a document id against the vectors
+   */
+  private void checkDocument(int docid) {
+    if (docid < 1 || docid > this.vectors[0].size()) {
+      throw new IllegalArgumentException("Document id " + docid + " is out of range [1, " + this.vectors[0].size() + "]");
+    }
+  }
+
+  /**
+   * compute the final score of every document of a result list, see CandidateList.getFinalScore()
+   * @param userqueryid
+   * @param candidates
+   * @param method 1, 2 or 3
+   */
+  public void score(String userqueryid, CandidateList candidates, int method) {
+    if (method < 1 || method > 3) {
+      throw new IllegalArgumentException("Unknown method " + method + ", expected 1, 2 or 3");
+    }
+    double[] weights = null;
+    double[] personalized = null;
+    if (this.cache != null) {
+      personalized = this.cache.get(userqueryid);
+    } else if (this.topicDist != null) {
+      weights = this.getTopicWeights(userqueryid);
+    }
+
+    // the pagerank score of each document and the ranges of both scores
+    int n = candidates.size();
+    int[] docs = candidates.getDocuments();
+    double[] relvalues = candidates.getRetrievalScores();
+    double[] prvalues = candidates.pagerankScores;
+    double[] res = candidates.finalScores;
+    // the retrieval scores of indri are negative, so the bounds start at the infinities
+    double prmax = Double.NEGATIVE_INFINITY;
+    double prmin = Double.POSITIVE_INFINITY;
+    double relmax = Double.NEGATIVE_INFINITY;
+    double relmin = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      this.checkDocument(docs[i]);
+      double prvalue = this.getPageRankScore(docs[i], personalized, weights);
+      prvalues[i] = prvalue;
+      if (prvalue > prmax) prmax = prvalue;
+      if (prvalue < prmin) prmin = prvalue;
+
+      double relvalue = relvalues[i];
+      if (relvalue > relmax) relmax = relvalue;
+      if (relvalue < relmin) relmin = relvalue;
+    }
+
+    // compute the score by different methods
+    double a = this.pagerankWeight;
+    double b = this.retrievalWeight;
+    switch (method) {
+      case 1:
+        System.arraycopy(prvalues, 0, res, 0, n);
+        break;
+      case 2:
+        for (int i = 0; i < n; i++) {
+          res[i] = a * prvalues[i] + b * relvalues[i];
+        }
+        break;
+      case 3:
+        // a score that is the same for every document normalizes to 0, not NaN
+        double prrange = prmax > prmin ? prmax - prmin : 1.0;
+        double relrange = relmax > relmin ? relmax - relmin : 1.0;
+        for (int i = 0; i < n; i++) {
+          res[i] = a * ((prvalues[i] - prmin) / prrange) + b * ((relvalues[i] - relmin) / relrange);
+        }
+        break;
+    }
+  }
+
+  /**
+   * compute the final score of every document in a result list and sort them
+   * @param userqueryid
+   * @param result the retrieval score of each document; replaced by the final scores
+   * @param method 1, 2 or 3
+   * @return the documents and their final scores, best first
+   */
+  public List<Entry<Integer, Double>> rerank(String userqueryid, Map<Integer, Double> result, int method) {
+    return this.rerank(userqueryid, result, method, 0, result.size());
+  }
+
+  /**
+   * compute the final score of every document in a result list and select one page of the ranking
+   * @param userqueryid
+   * @param result the retrieval score of each document; replaced by the final scores
+   * @param method 1, 2 or 3
+   * @param offset the rank of the first document returned, 0-based
+   * @param k the page size
+   * @return the documents and their final scores, best first
+   */
+  public List<Entry<Integer, Double>> rerank(String userqueryid, Map<Integer, Double> result, int method, int offset, int k) {
+    List<Entry<Integer, Double>> entries = new ArrayList<Entry<Integer, Double>>(result.entrySet());
+    CandidateList candidates = new CandidateList();
+    for (Entry<Integer, Double> entry : entries) {
+      candidates.add(entry.getKey(), entry.getValue());
+    }
+    this.score(userqueryid, candidates, method);
+
+    // select the page by the final score; ties keep the order of the map
+    for (int i = 0; i < entries.size(); i++) {
+      entries.get(i).setValue(candidates.getFinalScore(i));
+    }
+    int[] page = candidates.top(offset, k);
+    List<Entry<Integer, Double>> rankingItems = new ArrayList<Entry<Integer, Double>>(page.length);
+    for (int i : page) {
+      rankingItems.add(entries.get(i));
+    }
+
+    return rankingItems;
+  }
+
+  /**
+   * the user-query of a result list file, the part of its name before the first dot
+   * @param f
+   * @return
+   */
+  public static String getUserQueryId(File f) {
+    return f.getName().substring(0, f.getName().indexOf('.'));
+  }
+
+  /**
+   * write a ranking in the format of the result lists
+   * @param userqueryid
+   * @param rankingItems
+   * @param out
+   * @throws IOException
+   */
+  public static void writeRanking(String userqueryid, List<Entry<Integer, Double>> rankingItems, Appendable out) throws IOException {
+    writeRanking(userqueryid, rankingItems, 0, out);
+  }
+
+  /**
+   * write one page of a ranking in the format of the result lists
+   * @param userqueryid
+   * @param rankingItems
+   * @param offset the rank of the first item, 0-based
+   * @param out
+   * @throws IOException
+   */
+  public static void writeRanking(String userqueryid, List<Entry<Integer, Double>> rankingItems, int offset, Appendable out) throws IOException {
+    for (int i = 0; i < rankingItems.size(); i++) {
+      out.append(userqueryid + " Q0 " + rankingItems.get(i).getKey() + " " + (offset+i+1) + " " + rankingItems.get(i).getValue() + " indri\n");
+    }
+  }
+
+  /**
+   * write one page of a scored result list in the format of the result lists
+   * @param userqueryid
+   * @param candidates
+   * @param page the positions in the list, best first, as CandidateList.top() returns them
+   * @param offset the rank of the first item, 0-based
+   * @param out
+   */
+  public static void writeRanking(String userqueryid, CandidateList candidates, int[] page, int offset, StringBuilder out) {
+    for (int i = 0; i < page.length; i++) {
+      out.append(userqueryid).append(" Q0 ").append(candidates.getDocument(page[i])).append(' ').append(offset + i + 1)
+          .append(' ').append(candidates.getFinalScore(page[i])).append(" indri\n");
+    }
+  }
+}
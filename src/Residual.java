@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * the change of a pagerank vector over one iteration, summed up by the sweep that
+ * writes the new scores instead of a second pass over both vectors. each range of a
+ * sweep keeps its own sums, which are added up in range order like the other
+ * reductions, so the residual does not depend on the thread timing.
+ */
+public final class Residual {
+  // the slots of one range and vector in a partials array
+  static final int L1 = 0;
+
+  static final int SQUARES = 1;
+
+  static final int LINF = 2;
+
+  static final int NORM = 3;
+
+  static final int SLOTS = 4;
+
+  private final double l1;
+
+  private final double squares;
+
+  private final double linf;
+
+  private final double norm;
+
+  private final int dimension;
+
+  public Residual(double l1, double squares, double linf, double norm, int dimension) {
+    this.l1 = l1;
+    this.squares = squares;
+    this.linf = linf;
+    this.norm = norm;
+    this.dimension = dimension;
+  }
+
+  /**
+   * reset the slots at the given position
+   */
+  static void clear(double[] partials, int at) {
+    Arrays.fill(partials, at, at + SLOTS, 0.0);
+  }
+
+  /**
+   * add the change of one score to the slots at the given position
+   * @param partials
+   * @param at
+   * @param oldv the score of the previous iteration
+   * @param newv
+   */
+  static void add(double[] partials, int at, double oldv, double newv) {
+    double diff = Math.abs(newv - oldv);
+    partials[at + L1] += diff;
+    partials[at + SQUARES] += diff * diff;
+    if (diff > partials[at + LINF]) partials[at + LINF] = diff;
+    partials[at + NORM] += Math.abs(newv);
+  }
+
+  /**
+   * add up the slots of one vector over all ranges, laid out by
+   * (part * vectors + vector) * SLOTS
+   * @param partials
+   * @param parts
+   * @param vectors
+   * @param vector
+   * @param dimension
+   * @return
+   */
+  static Residual sum(double[] partials, int parts, int vectors, int vector, int dimension) {
+    double l1 = 0.0;
+    double squares = 0.0;
+    double linf = 0.0;
+    double norm = 0.0;
+    for (int part = 0; part < parts; part++) {
+      int at = (part * vectors + vector) * SLOTS;
+      l1 += partials[at + L1];
+      squares += partials[at + SQUARES];
+      linf = Math.max(linf, partials[at + LINF]);
+      norm += partials[at + NORM];
+    }
+    return new Residual(l1, squares, linf, norm, dimension);
+  }
+
+  // the sum of the absolute changes
+  public double getL1() {
+    return this.l1;
+  }
+
+  public double getL2() {
+    return Math.sqrt(this.squares);
+  }
+
+  // the largest absolute change
+  public double getLinf() {
+    return this.linf;
+  }
+
+  // the L1 norm of the new vector
+  public double getNorm() {
+    return this.norm;
+  }
+
+  public int getDimension() {
+    return this.dimension;
+  }
+}
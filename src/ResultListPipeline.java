@@ -0,0 +1,253 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Re-ranks a directory of result lists in three stages that overlap:
+ *
+ *   readers  read and parse the files, several at once
+ *   scorers  score the lists and format the rankings, several at once
+ *   writer   the calling thread, writes the rankings in the order of the user-queries
+ *
+ * The stages pass jobs through bounded queues. A fixed pool of jobs, each with its own
+ * CandidateList, bounds the work in flight: a reader waits for a free job, and a job
+ * is only free again once its ranking is written. The output does not depend on the
+ * order the stages finish in, the files are sorted by user-query id first.
+ */
+public class ResultListPipeline {
+  private final ReRanker reranker;
+
+  private final int method;
+
+  private final int readers;
+
+  private final int scorers;
+
+  // the number of jobs, the files in flight between the first and the last stage
+  private final int capacity;
+
+  /**
+   * @param reranker
+   * @param method 1, 2 or 3
+   * @param readers the threads reading the files
+   * @param scorers the threads scoring them
+   * @param capacity the files in flight at most, at least readers + scorers
+   */
+  public ResultListPipeline(ReRanker reranker, int method, int readers, int scorers, int capacity) {
+    if (readers < 1 || scorers < 1 || capacity < readers + scorers) {
+      throw new IllegalArgumentException("A pipeline needs a reader, a scorer and a job for each of them: " + readers + ", " + scorers + ", " + capacity);
+    }
+    this.reranker = reranker;
+    this.method = method;
+    this.readers = readers;
+    this.scorers = scorers;
+    this.capacity = capacity;
+  }
+
+  /**
+   * a file of the pipeline, with the buffers it goes through the stages in
+   */
+  private static class Job {
+    // the position of the file in the output, -1 for the end of the input
+    int seq;
+
+    File file;
+
+    String userqueryid;
+
+    final CandidateList candidates = new CandidateList();
+
+    final StringBuilder text = new StringBuilder();
+
+    byte[] ranking;
+  }
+
+  // tells the scorers that the readers are done, and the writer that a stage failed
+  private static final Job END = new Job();
+
+  private static final Job FAILED = new Job();
+
+  /**
+   * re-rank the result lists of many user-queries and write the rankings by user-query
+   * id. a file that cannot be read is reported and left out, as a result list without
+   * documents
+   * @param files the result lists, named after their user-query as in <id>.results.txt
+   * @param out
+   * @param log where to report each file as it is written, or null
+   * @return the number of files written
+   * @throws IOException
+   */
+  public int run(File[] files, OutputStream out, PrintStream log) throws IOException {
+    final File[] sorted = files.clone();
+    Arrays.sort(sorted, new Comparator<File>() {
+
+      @Override
+      public int compare(File a, File b) {
+        int res = compareUserQueryIds(ReRanker.getUserQueryId(a), ReRanker.getUserQueryId(b));
+        return res != 0 ? res : a.getName().compareTo(b.getName());
+      }
+
+    });
+
+    final BlockingQueue<Job> free = new ArrayBlockingQueue<Job>(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      free.add(new Job());
+    }
+    final BlockingQueue<Job> parsed = new ArrayBlockingQueue<Job>(this.capacity + this.scorers);
+    final BlockingQueue<Job> scored = new ArrayBlockingQueue<Job>(this.capacity + this.readers + this.scorers);
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger readersLeft = new AtomicInteger(this.readers);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    ExecutorService executor = Executors.newFixedThreadPool(this.readers + this.scorers);
+    try {
+      for (int r = 0; r < this.readers; r++) {
+        executor.execute(new Stage(failure, scored) {
+
+          @Override
+          void process() throws InterruptedException {
+            ByteTokenizer tokenizer = new ByteTokenizer();
+            while (true) {
+              // a job first, then a file, so the oldest file in flight always has a job
+              Job job = free.take();
+              job.seq = next.getAndIncrement();
+              if (job.seq >= sorted.length) break;
+
+              job.file = sorted[job.seq];
+              job.userqueryid = ReRanker.getUserQueryId(job.file);
+              try {
+                job.candidates.read(new FileInputStream(job.file), tokenizer);
+              } catch (IOException e) {
+                e.printStackTrace();
+                job.candidates.clear();
+              }
+              parsed.put(job);
+            }
+            if (readersLeft.decrementAndGet() == 0) {
+              for (int s = 0; s < scorers; s++) {
+                parsed.put(END);
+              }
+            }
+          }
+
+        });
+      }
+      for (int s = 0; s < this.scorers; s++) {
+        executor.execute(new Stage(failure, scored) {
+
+          @Override
+          void process() throws InterruptedException {
+            Job job;
+            while ((job = parsed.take()) != END) {
+              CandidateList candidates = job.candidates;
+              reranker.score(job.userqueryid, candidates, method);
+              job.text.setLength(0);
+              ReRanker.writeRanking(job.userqueryid, candidates, candidates.top(0, candidates.size()), 0, job.text);
+              job.ranking = job.text.toString().getBytes(StandardCharsets.UTF_8);
+              scored.put(job);
+            }
+          }
+
+        });
+      }
+
+      // write the rankings in order, holding back those that finished early
+      Job[] waiting = new Job[this.capacity];
+      for (int seq = 0; seq < sorted.length; seq++) {
+        while (waiting[seq % this.capacity] == null) {
+          Job job = scored.take();
+          if (job == FAILED) {
+            Throwable e = failure.get();
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            if (e instanceof Error) throw (Error) e;
+            throw new IOException(e);
+          }
+          waiting[job.seq % this.capacity] = job;
+        }
+        Job job = waiting[seq % this.capacity];
+        waiting[seq % this.capacity] = null;
+        if (log != null) log.println("Processing " + job.file.getName());
+        out.write(job.ranking);
+        job.ranking = null;
+        free.put(job);
+      }
+      out.flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while re-ranking");
+    } finally {
+      executor.shutdownNow();
+    }
+    return sorted.length;
+  }
+
+  /**
+   * a stage running on a thread of the pipeline, which reports a failure to the writer
+   */
+  private abstract static class Stage implements Runnable {
+    private final AtomicReference<Throwable> failure;
+
+    private final BlockingQueue<Job> scored;
+
+    Stage(AtomicReference<Throwable> failure, BlockingQueue<Job> scored) {
+      this.failure = failure;
+      this.scored = scored;
+    }
+
+    abstract void process() throws InterruptedException;
+
+    @Override
+    public void run() {
+      try {
+        this.process();
+      } catch (InterruptedException e) {
+        // the pipeline is shutting down
+      } catch (Throwable e) {
+        if (this.failure.compareAndSet(null, e)) {
+          this.scored.offer(FAILED);
+        }
+      }
+    }
+  }
+
+  /**
+   * order user-query ids such as 2-10 part by part, numerically where both parts are
+   * numbers, so that 2-9 comes before 2-10
+   * @param a
+   * @param b
+   * @return
+   */
+  public static int compareUserQueryIds(String a, String b) {
+    String[] as = a.split("-");
+    String[] bs = b.split("-");
+    for (int i = 0; i < Math.min(as.length, bs.length); i++) {
+      int res;
+      if (isNumber(as[i]) && isNumber(bs[i])) {
+        // without leading zeros, a longer number is a larger one
+        String x = stripZeros(as[i]);
+        String y = stripZeros(bs[i]);
+        res = x.length() != y.length() ? x.length() - y.length() : x.compareTo(y);
+      } else {
+        res = as[i].compareTo(bs[i]);
+      }
+      if (res != 0) return res;
+    }
+    return as.length != bs.length ? as.length - bs.length : a.compareTo(b);
+  }
+
+  private static boolean isNumber(String s) {
+    if (s.isEmpty()) return false;
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+    }
+    return true;
+  }
+
+  private static String stripZeros(String s) {
+    int i = 0;
+    while (i < s.length() - 1 && s.charAt(i) == '0') i++;
+    return s.substring(i);
+  }
+}
@@ -0,0 +1,262 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running re-ranking service. The pagerank vectors are computed, or loaded from
+ * snapshots, once at startup and stay in memory; each request carries the result list
+ * of one user-query and gets the re-ranked list back.
+ *
+ *   POST /rerank?model=gpr|tspr&uq=<user-query id>&method=1|2|3[&offset=<n>][&k=<n>]
+ *        the body is a result list, one "qid Q0 docid rank score indri" line per
+ *        document, and the response is the re-ranked list in the same format, or the
+ *        k documents from rank offset + 1 on
+ *   GET  /metrics  failed requests, latency histograms, the vector cache counters and
+ *                  the last iteration of each startup run, in the Prometheus text format
+ *   GET  /health
+ *
+ * Requests run on virtual threads when the JVM has them, and on a fixed pool otherwise.
+ */
+public class ScoringServer {
+  // the re-ranker of each model, by name
+  private final Map<String, ReRanker> rerankers;
+
+  // the latency of the successful requests of each model
+  private final Map<String, LatencyHistogram> latencies;
+
+  private final AtomicLong failures = new AtomicLong();
+
+  // the solver metrics of the runs that computed the vectors, or null
+  private PrometheusTextObserver solverMetrics;
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  public ScoringServer(Map<String, ReRanker> rerankers) {
+    this.rerankers = new LinkedHashMap<String, ReRanker>(rerankers);
+    this.latencies = new LinkedHashMap<String, LatencyHistogram>();
+    for (String model : this.rerankers.keySet()) {
+      this.latencies.put(model, new LatencyHistogram());
+    }
+  }
+
+  /**
+   * start serving
+   * @param port 0 for any free port
+   * @param workers the size of the pool used when there are no virtual threads
+   * @throws IOException
+   */
+  public void start(int port, int workers) throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = newExecutor(workers);
+    this.server.setExecutor(this.executor);
+
+    this.server.createContext("/rerank", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRerank(exchange);
+      }
+
+    });
+    this.server.createContext("/metrics", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        send(exchange, 200, getMetrics());
+      }
+
+    });
+    this.server.createContext("/health", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        send(exchange, 200, "ok\n");
+      }
+
+    });
+
+    this.server.start();
+  }
+
+  public void setSolverMetrics(PrometheusTextObserver m) {
+    this.solverMetrics = m;
+  }
+
+  public int getPort() {
+    return this.server.getAddress().getPort();
+  }
+
+  public void stop() {
+    this.server.stop(0);
+    this.executor.shutdown();
+  }
+
+  /**
+   * a virtual thread per request if the JVM has them, looked up by reflection so the
+   * server also runs on older JVMs, or else a fixed pool
+   */
+  static ExecutorService newExecutor(int workers) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newFixedThreadPool(workers);
+    } catch (UnsupportedOperationException e) {
+      return Executors.newFixedThreadPool(workers);
+    }
+  }
+
+  private void handleRerank(HttpExchange exchange) throws IOException {
+    long starttime = System.nanoTime();
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        this.failures.incrementAndGet();
+        send(exchange, 405, "Use POST\n");
+        return;
+      }
+
+      Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+      String model = params.containsKey("model") ? params.get("model") : "gpr";
+      ReRanker reranker = this.rerankers.get(model);
+      if (reranker == null) {
+        throw new IllegalArgumentException("Unknown model " + model + ", expected one of " + this.rerankers.keySet());
+      }
+      String userqueryid = params.get("uq");
+      if (userqueryid == null) {
+        throw new IllegalArgumentException("Missing the user-query id, uq");
+      }
+      int method = params.containsKey("method") ? Integer.parseInt(params.get("method")) : 3;
+      int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+      int k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : Integer.MAX_VALUE;
+
+      CandidateList candidates = new CandidateList();
+      candidates.read(exchange.getRequestBody(), new ByteTokenizer());
+      reranker.score(userqueryid, candidates, method);
+      int[] page = candidates.top(offset, k);
+      StringBuilder out = new StringBuilder(page.length * 48);
+      ReRanker.writeRanking(userqueryid, candidates, page, offset, out);
+      send(exchange, 200, out.toString());
+
+      this.latencies.get(model).record(System.nanoTime() - starttime);
+    } catch (IllegalArgumentException e) {
+      // malformed parameters or result lists, NumberFormatException included
+      this.failures.incrementAndGet();
+      send(exchange, 400, e.getMessage() + "\n");
+    } catch (IOException e) {
+      // a result list cut short, e.g. by a client that closed the connection
+      this.failures.incrementAndGet();
+      send(exchange, 400, "Cannot read the result list: " + e.getMessage() + "\n");
+    } catch (RuntimeException e) {
+      this.failures.incrementAndGet();
+      e.printStackTrace();
+      send(exchange, 500, "Internal error\n");
+    }
+  }
+
+  /**
+   * the metrics in the Prometheus text format
+   * @return
+   */
+  public String getMetrics() {
+    StringBuilder out = new StringBuilder();
+    out.append("# HELP rerank_failures_total Re-ranking requests that failed.\n");
+    out.append("# TYPE rerank_failures_total counter\n");
+    out.append("rerank_failures_total ").append(this.failures.get()).append('\n');
+    out.append("# HELP rerank_latency_seconds Latency of the successful re-ranking requests.\n");
+    out.append("# TYPE rerank_latency_seconds histogram\n");
+    for (Entry<String, LatencyHistogram> entry : this.latencies.entrySet()) {
+      entry.getValue().write("rerank_latency_seconds", "model=\"" + entry.getKey() + "\"", out);
+    }
+    for (Entry<String, ReRanker> entry : this.rerankers.entrySet()) {
+      if (entry.getValue().getCache() != null) {
+        entry.getValue().getCache().write(entry.getKey() + "_vector_cache", out);
+      }
+    }
+    if (this.solverMetrics != null) {
+      this.solverMetrics.write(out);
+    }
+    return out.toString();
+  }
+
+  public LatencyHistogram getLatencies(String model) {
+    return this.latencies.get(model);
+  }
+
+  private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+    Map<String, String> res = new HashMap<String, String>();
+    if (query == null) return res;
+
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq < 0) continue;
+      res.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+    }
+    return res;
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: <topic_num> <distribution_file> [-port <n>] [-threads <n>] [-workers <n>] [-gpr-snapshot <file>] [-tspr-snapshot <file>] [-criterion <scaled_l2|l1|linf|relative>] [-tolerance <x>] [-max-iterations <n>] [-time-budget <ms>] [-console <true|false>] [-metrics-jsonl <file>] [-metrics-prom <file>] [-cache-mb <n>] [-precompute <true|false>]");
+      return ;
+    }
+
+    int tnum = Integer.parseInt(args[0]);
+    String topicDistFilename = args[1];
+    Map<String, String> options = Utilities.parseOptions(args, 2);
+    int port = options.containsKey("port") ? Integer.parseInt(options.get("port")) : 8080;
+    int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : 1;
+    int workers = options.containsKey("workers") ? Integer.parseInt(options.get("workers")) : 32;
+    long cacheBytes = (options.containsKey("cache-mb") ? Long.parseLong(options.get("cache-mb")) : 64) << 20;
+    boolean precompute = Boolean.parseBoolean(options.get("precompute"));
+
+    // the solver metrics are also served at /metrics
+    PrometheusTextObserver solverMetrics = new PrometheusTextObserver(options.remove("metrics-prom"));
+    List<IterationObserver> observers = Utilities.createObservers(options, false);
+    observers.add(solverMetrics);
+
+    // compute or load the vectors once
+    long starttime = System.currentTimeMillis();
+    GlobalPageRank gpr = new GlobalPageRank(81433, 0.85, "transition.txt", threads);
+    gpr.setConvergence(options);
+    gpr.addObservers(observers);
+    gpr.runWithSnapshot(options.get("gpr-snapshot"));
+    gpr.close();
+    TopicSensitivePageRank tpr = new TopicSensitivePageRank(81433, tnum, 0.75, 0.15, "transition.txt", "doc_topics.txt", threads);
+    tpr.setConvergence(options);
+    tpr.addObservers(observers);
+    tpr.runWithSnapshot(options.get("tspr-snapshot"));
+    tpr.close();
+
+    Map<String, ReRanker> rerankers = new LinkedHashMap<String, ReRanker>();
+    rerankers.put("gpr", new ReRanker(gpr.getPageRankValues()));
+    Map<String, List<Double>> dist = Utilities.readTopicDist(topicDistFilename);
+    PersonalizedVectorCache cache = new PersonalizedVectorCache(tpr.getTopicPageRankValues(), dist, cacheBytes);
+    if (precompute) {
+      System.out.println("Precomputed " + cache.precompute(dist.keySet()) + " of " + dist.size() + " personalized vectors");
+    }
+    rerankers.put("tspr", new ReRanker(tpr.getTopicPageRankValues(), dist, cache));
+
+    ScoringServer server = new ScoringServer(rerankers);
+    server.setSolverMetrics(solverMetrics);
+    server.start(port, workers);
+    System.out.println("Serving on port " + server.getPort() + " after " + (System.currentTimeMillis() - starttime) + " ms");
+  }
+}
@@ -0,0 +1,249 @@
+import java.util.*;
+
+/**
+ * The link graph in compressed sparse row form. Documents are 1-based in the
+ * data files and 0-based here, so document d is stored at index d - 1.
+ *
+ * The out-links of node i are outTargets[outOffsets[i] .. outOffsets[i+1]) and
+ * the in-links (the transposed matrix) are inSources[inOffsets[i] .. inOffsets[i+1]).
+ * Both adjacency lists are sorted and free of duplicates.
+ *
+ * The dangling nodes, the nodes without out links whether or not they have in links,
+ * are listed once when the graph is built, so the iterations do not look for them.
+ */
+public class SparseGraph {
+  // the number of nodes in the graph
+  private final int dimension;
+
+  // the transition matrix
+  private final int[] outOffsets;
+  private final int[] outTargets;
+
+  // the transposition of the transition matrix
+  private final int[] inOffsets;
+  private final int[] inSources;
+
+  // the number of out links of each node
+  private final int[] outDegree;
+
+  // the nodes without out links, in increasing order
+  private final int[] danglingNodes;
+
+  SparseGraph(int d, int[] outOffsets, int[] outTargets, int[] inOffsets, int[] inSources, int[] outDegree) {
+    this.dimension = d;
+    this.outOffsets = outOffsets;
+    this.outTargets = outTargets;
+    this.inOffsets = inOffsets;
+    this.inSources = inSources;
+    this.outDegree = outDegree;
+    this.danglingNodes = findDanglingNodes(d, outDegree);
+  }
+
+  private static int[] findDanglingNodes(int d, int[] outDegree) {
+    int count = 0;
+    for (int i = 0; i < d; i++) {
+      if (outDegree[i] == 0) count++;
+    }
+    int[] res = new int[count];
+    count = 0;
+    for (int i = 0; i < d; i++) {
+      if (outDegree[i] == 0) res[count++] = i;
+    }
+    return res;
+  }
+
+  /**
+   * build the graph from an edge list. the node ids are 1-based, as in the edge file;
+   * duplicated edges are removed.
+   * @param d the number of nodes
+   * @param from the source of each edge
+   * @param to the target of each edge
+   * @param m the number of edges in the arrays
+   * @return
+   */
+  public static SparseGraph fromEdges(int d, int[] from, int[] to, int m) {
+    // 1. count the out links of each node
+    int[] offsets = new int[d + 1];
+    for (int k = 0; k < m; k++) {
+      checkNode(from[k], d);
+      checkNode(to[k], d);
+      offsets[from[k]]++;
+    }
+    for (int i = 0; i < d; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+
+    // 2. scatter the targets into their rows
+    int[] targets = new int[m];
+    int[] cursor = Arrays.copyOf(offsets, d);
+    for (int k = 0; k < m; k++) {
+      targets[cursor[from[k] - 1]++] = to[k] - 1;
+    }
+
+    // 3. sort each row and drop the duplicates
+    int[] outDegree = new int[d];
+    int size = 0;
+    for (int i = 0; i < d; i++) {
+      int start = offsets[i];
+      int end = offsets[i + 1];
+      Arrays.sort(targets, start, end);
+      offsets[i] = size;
+      for (int k = start; k < end; k++) {
+        if (k == start || targets[k] != targets[k - 1]) {
+          targets[size++] = targets[k];
+        }
+      }
+      outDegree[i] = size - offsets[i];
+    }
+    offsets[d] = size;
+    if (size < m) targets = Arrays.copyOf(targets, size);
+
+    return fromAdjacency(d, offsets, targets, outDegree);
+  }
+
+  /**
+   * build the graph from sorted, duplicate free out-link rows, computing the transposition.
+   * @param d
+   * @param offsets
+   * @param targets
+   * @param outDegree
+   * @return
+   */
+  static SparseGraph fromAdjacency(int d, int[] offsets, int[] targets, int[] outDegree) {
+    int[] inOffsets = new int[d + 1];
+    for (int k = 0; k < offsets[d]; k++) {
+      inOffsets[targets[k] + 1]++;
+    }
+    for (int i = 0; i < d; i++) {
+      inOffsets[i + 1] += inOffsets[i];
+    }
+
+    // sources are visited in increasing order, so every in-link row comes out sorted
+    int[] sources = new int[offsets[d]];
+    int[] cursor = Arrays.copyOf(inOffsets, d);
+    for (int i = 0; i < d; i++) {
+      for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+        sources[cursor[targets[k]]++] = i;
+      }
+    }
+
+    return new SparseGraph(d, offsets, targets, inOffsets, sources, outDegree);
+  }
+
+  /**
+   * build a new graph with some edges added and some removed, the ids are 1-based.
+   * removing an edge that does not exist has no effect.
+   * @param addFrom
+   * @param addTo
+   * @param removeFrom
+   * @param removeTo
+   * @return
+   */
+  public SparseGraph withEdgeDelta(int[] addFrom, int[] addTo, int[] removeFrom, int[] removeTo) {
+    Set<Long> removed = new HashSet<Long>();
+    for (int k = 0; k < removeFrom.length; k++) {
+      checkNode(removeFrom[k], dimension);
+      checkNode(removeTo[k], dimension);
+      removed.add(((long) (removeFrom[k] - 1) << 32) | (removeTo[k] - 1));
+    }
+
+    int m = 0;
+    int[] from = new int[outTargets.length + addFrom.length];
+    int[] to = new int[outTargets.length + addFrom.length];
+    for (int i = 0; i < dimension; i++) {
+      for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+        if (!removed.isEmpty() && removed.contains(((long) i << 32) | outTargets[k])) continue;
+        from[m] = i + 1;
+        to[m] = outTargets[k] + 1;
+        m++;
+      }
+    }
+    for (int k = 0; k < addFrom.length; k++) {
+      from[m] = addFrom[k];
+      to[m] = addTo[k];
+      m++;
+    }
+
+    return fromEdges(dimension, from, to, m);
+  }
+
+  static void checkNode(int id, int d) {
+    if (id < 1 || id > d) {
+      throw new IllegalArgumentException("Node id " + id + " is out of range [1, " + d + "]");
+    }
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public int getEdgeCount() {
+    return outTargets.length;
+  }
+
+  /**
+   * a 64-bit FNV-1a hash of the out-link rows, which determine the whole graph. two
+   * graphs with the same fingerprint are taken to be the same graph.
+   * @return
+   */
+  public long getFingerprint() {
+    long res = 0xcbf29ce484222325L;
+    res = (res ^ dimension) * 0x100000001b3L;
+    for (int k = 0; k < outOffsets.length; k++) {
+      res = (res ^ outOffsets[k]) * 0x100000001b3L;
+    }
+    for (int k = 0; k < outTargets.length; k++) {
+      res = (res ^ outTargets[k]) * 0x100000001b3L;
+    }
+    return res;
+  }
+
+  // the arrays below are shared, not copied, and must not be modified
+
+  int[] getOutOffsets() {
+    return outOffsets;
+  }
+
+  int[] getOutTargets() {
+    return outTargets;
+  }
+
+  int[] getInOffsets() {
+    return inOffsets;
+  }
+
+  int[] getInSources() {
+    return inSources;
+  }
+
+  int[] getOutDegree() {
+    return outDegree;
+  }
+
+  int[] getDanglingNodes() {
+    return danglingNodes;
+  }
+
+  /**
+   * the sum of the scores of the dangling nodes, which are redistributed to all nodes
+   * @param x the scores, stride apart from offset on
+   * @param offset
+   * @param stride
+   * @return
+   */
+  double getDanglingMass(double[] x, int offset, int stride) {
+    double res = 0.0;
+    for (int k = 0; k < danglingNodes.length; k++) {
+      res += x[offset + danglingNodes[k] * stride];
+    }
+    return res;
+  }
+
+  /**
+   * the approximate heap footprint of the graph in bytes
+   * @return
+   */
+  public long getMemoryBytes() {
+    return 4L * (outOffsets.length + outTargets.length + inOffsets.length + inSources.length + outDegree.length + danglingNodes.length);
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Selects the k best of n scored items without sorting all of them, in O(n log k), with
+ * a bounded min-heap of primitive (score, index) pairs; the heap root is the worst item
+ * kept so far, and an item only enters the heap if it beats the root.
+ *
+ * Items are ordered by decreasing score, and items with equal scores by increasing
+ * index, so the result is the same as a stable sort of the items in index order.
+ *
+ *   TopK top = new TopK(offset + k);
+ *   for (...) top.offer(i, score);
+ *   int[] page = top.drain(offset);
+ */
+public class TopK {
+  private final int capacity;
+
+  // the heap, the worst item at 0
+  private final double[] scores;
+  private final int[] indices;
+
+  private int size;
+
+  public TopK(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+    }
+    this.capacity = capacity;
+    this.scores = new double[capacity];
+    this.indices = new int[capacity];
+  }
+
+  /**
+   * consider an item
+   * @param index
+   * @param score
+   */
+  public void offer(int index, double score) {
+    if (this.size < this.capacity) {
+      // sift up
+      int k = this.size++;
+      while (k > 0) {
+        int parent = (k - 1) >>> 1;
+        if (!worse(score, index, this.scores[parent], this.indices[parent])) break;
+        this.scores[k] = this.scores[parent];
+        this.indices[k] = this.indices[parent];
+        k = parent;
+      }
+      this.scores[k] = score;
+      this.indices[k] = index;
+    } else if (this.capacity > 0 && worse(this.scores[0], this.indices[0], score, index)) {
+      this.replaceRoot(score, index);
+    }
+  }
+
+  /**
+   * whether item a ranks after item b
+   */
+  private static boolean worse(double sa, int ia, double sb, int ib) {
+    return sa < sb || (sa == sb && ia > ib);
+  }
+
+  private void replaceRoot(double score, int index) {
+    // sift down
+    int k = 0;
+    int half = this.size >>> 1;
+    while (k < half) {
+      int child = 2 * k + 1;
+      int right = child + 1;
+      if (right < this.size && worse(this.scores[right], this.indices[right], this.scores[child], this.indices[child])) {
+        child = right;
+      }
+      if (!worse(this.scores[child], this.indices[child], score, index)) break;
+      this.scores[k] = this.scores[child];
+      this.indices[k] = this.indices[child];
+      k = child;
+    }
+    this.scores[k] = score;
+    this.indices[k] = index;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * empty the heap
+   * @param offset the number of best items to skip
+   * @return the indices of the items kept, best first, without the first offset ones
+   */
+  public int[] drain(int offset) {
+    int n = Math.max(0, this.size - offset);
+    int[] res = new int[n];
+    // pop the worst item until only the skipped ones are left
+    while (this.size > offset) {
+      int last = --this.size;
+      res[last - offset] = this.indices[0];
+      if (last > 0) {
+        double score = this.scores[last];
+        int index = this.indices[last];
+        this.replaceRoot(score, index);
+      }
+    }
+    this.size = 0;
+    return res;
+  }
+
+  /**
+   * one page of the indices of an array by decreasing value
+   * @param values
+   * @param offset the rank of the first index returned, 0-based
+   * @param k the page size
+   * @return
+   */
+  public static int[] select(double[] values, int offset, int k) {
+    return select(values, values.length, offset, k);
+  }
+
+  /**
+   * one page of the indices of the first n values of an array by decreasing value
+   * @param values
+   * @param n
+   * @param offset
+   * @param k
+   * @return
+   */
+  public static int[] select(double[] values, int n, int offset, int k) {
+    TopK top = new TopK(capacity(n, offset, k));
+    for (int i = 0; i < n; i++) {
+      top.offer(i, values[i]);
+    }
+    return top.drain(offset);
+  }
+
+  /**
+   * one page of the indices of a vector by decreasing score
+   * @param values
+   * @param offset
+   * @param k
+   * @return
+   */
+  public static int[] select(RankVector values, int offset, int k) {
+    TopK top = new TopK(capacity(values.size(), offset, k));
+    for (int i = 0; i < values.size(); i++) {
+      top.offer(i, values.get(i));
+    }
+    return top.drain(offset);
+  }
+
+  private static int capacity(int n, int offset, int k) {
+    if (offset < 0 || k < 0) {
+      throw new IllegalArgumentException("Offset and page size must not be negative: " + offset + ", " + k);
+    }
+    return (int) Math.min(n, (long) offset + k);
+  }
+}
@@ -1,6 +1,5 @@
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 
 public class TopicSensitivePageRank extends AbstractPageRank {
 
@@ -14,153 +13,542 @@ public class TopicSensitivePageRank extends AbstractPageRank {
   // the number of topics
   private int topicNumber;
   
-  // current pagerank values for each topic
-  private List<List<Double>> topicPRValues;
+  // whether the topic vectors are stored node-major and computed in one pass over the edges
+  private boolean blocked;
   
-  // pagerank values for each topic of previous iteration
-  private List<List<Double>> preTopicPRValues;
+  // current pagerank values for each topic, laid out by index(topic, node)
+  private double[] topicPRValues;
+  
+  // pagerank values for each topic of previous iteration, reused as the output buffer of the next iteration
+  private double[] preTopicPRValues;
   
   // the topic-document relation
   private Map<Integer, Set<Integer>> topicDocuments;
   
+  // the topics still being iterated, 0-based; the first activeTopicCount entries are valid
+  private int[] activeTopics;
+  
+  private int activeTopicCount;
+  
+  // whether each topic has converged and is not iterated any more
+  private boolean[] frozen;
+  
+  // the number of iterations each topic has run, which stops growing once it converges
+  private int[] topicIterations;
+  
+  // the topics of each document (0-based, compressed rows) and the teleport score a
+  // document gets from each topic, built for the sweeps that add it node by node
+  private int[] docTopicOffsets;
+  
+  private int[] docTopics;
+  
+  private double[] docTopicScores;
+  
+  // the sum of the current pagerank values of each topic, which the teleport spreads over all nodes
+  private double[] topicMass;
+  
+  // the teleport and the redistributed dangling score each node of a topic gets
+  private double[] topicUniform;
+  
+  // per-range residual sums of the last sweep, Residual.SLOTS per range and topic
+  private double[] residualPartials;
+  
+  // the residual of each topic in its last iteration
+  private Residual[] topicResiduals;
+  
+  // the score of the nodes without out links each topic redistributed in its last iteration
+  private double[] topicDanglingMass;
+  
+  // the topics the last iteration updated, the first iteratedCount entries are valid
+  private int[] iteratedTopics;
+  
+  private int iteratedCount;
+  
+  // per-range accumulators of the node-major sweeps, topicNumber slots per range
+  private double[] rowSums;
+  
   public TopicSensitivePageRank(int d, int tn, double a, double b, String mfp, String dcfp) {
-    super(d, mfp);
+    this(d, tn, a, b, mfp, dcfp, 1);
+  }
+  
+  public TopicSensitivePageRank(int d, int tn, double a, double b, String mfp, String dcfp, int threads) {
+    this(d, tn, a, b, mfp, dcfp, threads, false);
+  }
+  
+  public TopicSensitivePageRank(int d, int tn, double a, double b, String mfp, String dcfp, int threads, boolean blocked) {
+    super(d, mfp, threads);
     
     this.alpha = a;
     this.beta = b;
     this.gama = 1.0 - this.alpha - this.beta;
     this.topicNumber = tn;
+    this.blocked = blocked;
     
     this.topicDocuments = Utilities.readTopicDocuments(dcfp);
     this.topicPRValues = this.initPageRankVectors();
     this.preTopicPRValues = null;
+    this.activeTopics = new int[tn];
+    for (int i = 0; i < tn; i++) {
+      this.activeTopics[i] = i;
+    }
+    this.activeTopicCount = tn;
+    this.frozen = new boolean[tn];
+    this.topicIterations = new int[tn];
+    this.topicMass = new double[tn];
+    this.updateTopicMass();
+    this.topicUniform = new double[tn];
+    this.residualPartials = new double[this.sweep.getPartCount() * tn * Residual.SLOTS];
+    this.topicResiduals = new Residual[tn];
+    this.topicDanglingMass = new double[tn];
+    this.iteratedTopics = new int[tn];
+    this.rowSums = new double[this.sweep.getPartCount() * tn];
   }
   
   /**
    * Initialize the pagerank vectors
    * @return
    */
-  private List<List<Double>> initPageRankVectors() {
-    List<List<Double>> res = new ArrayList<List<Double>>();
+  private double[] initPageRankVectors() {
+    double[] res = new double[this.topicNumber * this.dimension];
     
-    for (int i = 0; i < this.topicNumber; i++) {
-      List<Double> reslist = new ArrayList<Double>();
-      
-      for (int j = 0; j < this.dimension; j++) {
-        reslist.add(1.0/(double) this.dimension);
-      }
-      
-      res.add(reslist);
-    }
+    Arrays.fill(res, 1.0/(double) this.dimension);
     
     return res;
   }
+  
+  /**
+   * the position of a node's score for a topic in the value buffers, both 0-based
+   */
+  private int index(int topic, int node) {
+    return this.blocked ? node * this.topicNumber + topic : topic * this.dimension + node;
+  }
 
   @Override
   protected void runIteration() {
-    long curtime = System.currentTimeMillis();
-    List<List<Double>> curprs = this.getTopicPageRankValues();
-    List<List<Double>> newprs = new ArrayList<List<Double>>(this.dimension);
-    for (int i = 0; i < this.topicNumber; i++) {
-      newprs.add(new ArrayList<Double>(this.dimension));
+    double[] curprs = this.topicPRValues;
+    double[] newprs = this.preTopicPRValues == null ? new double[this.topicNumber * this.dimension] : this.preTopicPRValues;
+    
+    // converged topics are skipped, both buffers already hold their final values
+    for (int k = 0; k < this.activeTopicCount; k++) {
+      this.topicIterations[this.activeTopics[k]]++;
+    }
+    if (this.docTopicOffsets == null) {
+      this.buildDocumentTopicIndex();
     }
     
-    for (int i = 0; i < this.topicNumber; i++) {
-      List<Double> curtpr = curprs.get(i);
-      List<Double> newtpr = newprs.get(i);
-      Set<Integer> nooutlink = new HashSet<Integer>();
-      
-      // 1. compute the Beta * r
-      double sumr = 0.0;
-      for (Double pr : curtpr)
-        sumr += pr;
-      sumr = (sumr / (double) this.dimension) * this.beta;
-      for (int j = 0; j < this.dimension; j++) {
-        newtpr.add(j, sumr);
+    // 1. the teleport Beta * r and the redistributed pr score of the nodes without out
+    // links are the same for every node of a topic, so they are added as one scalar
+    for (int k = 0; k < this.activeTopicCount; k++) {
+      int t = this.activeTopics[k];
+      this.topicDanglingMass[t] = this.blocked ? this.graph.getDanglingMass(curprs, t, this.topicNumber)
+          : this.graph.getDanglingMass(curprs, t * this.dimension, 1);
+      this.topicUniform[t] = (this.topicMass[t] / (double) this.dimension) * this.beta
+          + this.alpha * this.topicDanglingMass[t] / (double) this.dimension;
+    }
+    
+    if (this.solver == Solver.GAUSS_SEIDEL) {
+      this.runGaussSeidelSweep(curprs, newprs);
+    } else if (this.blocked) {
+      this.runBlockedProduct(curprs, newprs);
+    } else {
+      for (int k = 0; k < this.activeTopicCount; k++) {
+        this.runTopicProduct(curprs, newprs, this.activeTopics[k]);
       }
-      
-      // 2. compute the Alpha * M^T * r
-      for (Entry<Integer, Set<Integer>> entry : this.transposedTransitionMatrix.entrySet()) {
-        Integer toDocId = entry.getKey();
-        double tempsum = 0.0;
-        
-        for (Integer fromDocId : entry.getValue()) {
-          Integer normlen = this.transitionMatrix.get(fromDocId).size();
-          tempsum += (1.0/(double) normlen) * curtpr.get(fromDocId - 1) * this.alpha;
+    }
+    
+    for (int k = 0; k < this.activeTopicCount; k++) {
+      int t = this.activeTopics[k];
+      this.topicResiduals[t] = Residual.sum(this.residualPartials, this.sweep.getPartCount(), this.topicNumber, t, this.dimension);
+    }
+    Extrapolator extrapolator = this.blocked ? this.getExtrapolator(this.topicNumber, 1, this.topicNumber)
+        : this.getExtrapolator(this.topicNumber, this.dimension, 1);
+    if (extrapolator != null) {
+      extrapolator.afterIteration(newprs, curprs, this.activeTopics, this.activeTopicCount, this.topicResiduals, this.criterion);
+    }
+    for (int k = 0; k < this.activeTopicCount; k++) {
+      int t = this.activeTopics[k];
+      // the scores are positive, so the norm the residual sums up is their sum
+      this.topicMass[t] = this.topicResiduals[t].getNorm();
+    }
+    System.arraycopy(this.activeTopics, 0, this.iteratedTopics, 0, this.activeTopicCount);
+    this.iteratedCount = this.activeTopicCount;
+    this.updatePageRankValue(newprs);
+  }
+  
+  /**
+   * 2. compute Alpha * M^T * r plus the uniform part and the share of the topic
+   * documents, and the residual, for one topic stored contiguously
+   */
+  private void runTopicProduct(final double[] curprs, final double[] newprs, final int topic) {
+    final int base = topic * this.dimension;
+    final int tn = this.topicNumber;
+    final int[] inOffsets = this.graph.getInOffsets();
+    final int[] inSources = this.graph.getInSources();
+    final int[] outDegree = this.graph.getOutDegree();
+    final double[] residuals = this.residualPartials;
+    final int[] docTopicOffsets = this.docTopicOffsets;
+    final int[] docTopics = this.docTopics;
+    final double share = this.docTopicScores[topic];
+    final double uniform = this.topicUniform[topic];
+    final double a = this.alpha;
+    
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int at = (part * tn + topic) * Residual.SLOTS;
+        Residual.clear(residuals, at);
+        for (int j = from; j < to; j++) {
+          double tempsum = 0.0;
+          
+          for (int k = inOffsets[j]; k < inOffsets[j + 1]; k++) {
+            int src = inSources[k];
+            tempsum += (1.0/(double) outDegree[src]) * curprs[base + src] * a;
+          }
+          
+          double pr = uniform + tempsum;
+          for (int e = docTopicOffsets[j]; e < docTopicOffsets[j + 1]; e++) {
+            if (docTopics[e] == topic)
+              pr += share;
+          }
+          newprs[base + j] = pr;
+          Residual.add(residuals, at, curprs[base + j], pr);
         }
-        
-        newtpr.set(toDocId - 1, newtpr.get(toDocId - 1) + tempsum);
-        
-        if (!this.transitionMatrix.containsKey(toDocId)) 
-          nooutlink.add(toDocId);
       }
       
-      // 3. distribute the pr score of those nodes without out links
-      sumr = 0.0;
-      for (Integer id : nooutlink) {
-        sumr += curtpr.get(id - 1);
+    });
+  }
+  
+  /**
+   * the same step as runTopicProduct() for all topics at once on node-major buffers,
+   * so every in link is read once per iteration and updates a row of topicNumber
+   * contiguous values. the arithmetic is done in the same order as in runTopicProduct(),
+   * so both layouts produce the same values.
+   */
+  private void runBlockedProduct(final double[] curprs, final double[] newprs) {
+    final int[] inOffsets = this.graph.getInOffsets();
+    final int[] inSources = this.graph.getInSources();
+    final int[] outDegree = this.graph.getOutDegree();
+    final double[] rows = this.rowSums;
+    final double[] residuals = this.residualPartials;
+    final int[] docTopicOffsets = this.docTopicOffsets;
+    final int[] docTopics = this.docTopics;
+    final double[] docTopicScores = this.docTopicScores;
+    final double[] uniform = this.topicUniform;
+    final boolean[] frozen = this.frozen;
+    final double a = this.alpha;
+    final int tn = this.topicNumber;
+    final int[] active = this.activeTopics;
+    final int an = this.activeTopicCount;
+    
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int slot = part * tn;
+        for (int k = 0; k < an; k++)
+          Residual.clear(residuals, (slot + active[k]) * Residual.SLOTS);
+        for (int j = from; j < to; j++) {
+          int row = j * tn;
+          Arrays.fill(rows, slot, slot + tn, 0.0);
+          
+          for (int k = inOffsets[j]; k < inOffsets[j + 1]; k++) {
+            int src = inSources[k] * tn;
+            double w = 1.0/(double) outDegree[inSources[k]];
+            for (int k2 = 0; k2 < an; k2++) {
+              int t = active[k2];
+              rows[slot + t] += w * curprs[src + t] * a;
+            }
+          }
+          
+          for (int k = 0; k < an; k++) {
+            int t = active[k];
+            newprs[row + t] = uniform[t] + rows[slot + t];
+          }
+          for (int e = docTopicOffsets[j]; e < docTopicOffsets[j + 1]; e++) {
+            if (!frozen[docTopics[e]])
+              newprs[row + docTopics[e]] += docTopicScores[docTopics[e]];
+          }
+          for (int k = 0; k < an; k++) {
+            int t = active[k];
+            Residual.add(residuals, (slot + t) * Residual.SLOTS, curprs[row + t], newprs[row + t]);
+          }
+        }
       }
-      sumr = this.alpha * sumr / (double) this.dimension;
-      for (int j = 0; j < this.dimension; j++) {
-        newtpr.set(j, newtpr.get(j) + sumr);
+      
+    });
+  }
+  
+  /**
+   * one Gauss-Seidel sweep over all active topics, in either layout. the scores of a
+   * range are updated in place, so in links from nodes earlier in the same range read
+   * the new scores while in links from other ranges read the previous round. the
+   * uniform part is taken from the previous round, and the topic documents get their
+   * share inside the sweep.
+   */
+  private void runGaussSeidelSweep(final double[] curprs, final double[] newprs) {
+    final int[] inOffsets = this.graph.getInOffsets();
+    final int[] inSources = this.graph.getInSources();
+    final int[] outDegree = this.graph.getOutDegree();
+    final double[] rows = this.rowSums;
+    final double[] uniform = this.topicUniform;
+    final double a = this.alpha;
+    final double omega = this.relaxation;
+    final int tn = this.topicNumber;
+    final int[] active = this.activeTopics;
+    final int an = this.activeTopicCount;
+    // the distance between two topics of a node and between two nodes of a topic
+    final int topicStride = this.blocked ? 1 : this.dimension;
+    final int nodeStride = this.blocked ? tn : 1;
+    final double[] residuals = this.residualPartials;
+    final int[] docTopicOffsets = this.docTopicOffsets;
+    final int[] docTopics = this.docTopics;
+    final double[] docTopicScores = this.docTopicScores;
+    
+    // 2. update the scores in place and compute the residuals
+    this.sweep.run(new ParallelSweep.RangeTask() {
+
+      @Override
+      public void run(int part, int from, int to) {
+        int slot = part * tn;
+        for (int k = 0; k < an; k++)
+          Residual.clear(residuals, (slot + active[k]) * Residual.SLOTS);
+        for (int j = from; j < to; j++) {
+          for (int k = 0; k < an; k++) {
+            int idx = active[k] * topicStride + j * nodeStride;
+            newprs[idx] = curprs[idx];
+          }
+        }
+        
+        for (int j = from; j < to; j++) {
+          for (int k = 0; k < an; k++)
+            rows[slot + active[k]] = uniform[active[k]];
+          
+          for (int e = inOffsets[j]; e < inOffsets[j + 1]; e++) {
+            int src = inSources[e];
+            double w = 1.0/(double) outDegree[src];
+            double[] prs = (src >= from && src < to) ? newprs : curprs;
+            for (int k = 0; k < an; k++) {
+              int t = active[k];
+              rows[slot + t] += w * prs[t * topicStride + src * nodeStride] * a;
+            }
+          }
+          
+          // the topic documents, rows of inactive topics are never read
+          for (int e = docTopicOffsets[j]; e < docTopicOffsets[j + 1]; e++) {
+            rows[slot + docTopics[e]] += docTopicScores[docTopics[e]];
+          }
+          
+          for (int k = 0; k < an; k++) {
+            int t = active[k];
+            int idx = t * topicStride + j * nodeStride;
+            newprs[idx] = omega * rows[slot + t] + (1.0 - omega) * curprs[idx];
+            Residual.add(residuals, (slot + t) * Residual.SLOTS, curprs[idx], newprs[idx]);
+          }
+        }
       }
       
-      // 4. for documents within current topic
-      Set<Integer> docs = this.topicDocuments.get(i + 1);
-      for (Integer docid : docs) {
-        newtpr.set(docid - 1, newtpr.get(docid - 1) + this.gama * (1.0 / (double) docs.size()));
+    });
+  }
+  
+  /**
+   * build the document-topic relation in compressed rows, for the sweeps that add the
+   * topic teleport node by node
+   */
+  private void buildDocumentTopicIndex() {
+    Map<Integer, Set<Integer>> docTopicMap = Utilities.getDocumentTopics(this.topicDocuments);
+    int[] offsets = new int[this.dimension + 1];
+    List<Integer> topics = new ArrayList<Integer>();
+    for (int j = 0; j < this.dimension; j++) {
+      offsets[j] = topics.size();
+      Set<Integer> tset = docTopicMap.get(j + 1);
+      if (tset == null) continue;
+      for (Integer tid : tset) {
+        if (tid >= 1 && tid <= this.topicNumber) topics.add(tid - 1);
       }
     }
+    offsets[this.dimension] = topics.size();
     
-    this.updatePageRankValue(newprs);
-    System.out.println(System.currentTimeMillis() - curtime);
+    int[] res = new int[topics.size()];
+    for (int e = 0; e < res.length; e++) {
+      res[e] = topics.get(e);
+    }
+    double[] scores = new double[this.topicNumber];
+    for (int t = 0; t < this.topicNumber; t++) {
+      scores[t] = this.gama * (1.0 / (double) this.topicDocuments.get(t + 1).size());
+    }
+    
+    this.docTopicOffsets = offsets;
+    this.docTopics = res;
+    this.docTopicScores = scores;
   }
   
-  public List<List<Double>> getTopicPageRankValues() {
-    return Collections.unmodifiableList(this.topicPRValues);
+  /**
+   * views of the current scores of each topic, valid until the engine runs again, see RankVector
+   * @return
+   */
+  public List<RankVector> getTopicPageRankValues() {
+    List<RankVector> res = new ArrayList<RankVector>(this.topicNumber);
+    for (int i = 0; i < this.topicNumber; i++) {
+      res.add(new RankVector(this.topicPRValues, this.index(i, 0), this.blocked ? this.topicNumber : 1, this.dimension));
+    }
+    return Collections.unmodifiableList(res);
   }
   
-  private void updatePageRankValue(List<List<Double>> newprs) {
+  private void updatePageRankValue(double[] newprs) {
     this.preTopicPRValues = this.topicPRValues;
     this.topicPRValues = newprs;
   }
 
   /**
-   * judge whether all the pagerank vectors are converged
+   * judge whether all the pagerank vectors are converged. a topic that has converged
+   * is frozen: it is copied into the spare buffer and not iterated any further.
    */
   @Override
   protected boolean isConverged() {
     if (this.preTopicPRValues == null) return false;
     
-    for (int i = 0; i < this.topicNumber; i++) {
-      if (!isConverged(this.topicPRValues.get(i), this.preTopicPRValues.get(i))) {
-        return false;
+    int remaining = 0;
+    for (int k = 0; k < this.activeTopicCount; k++) {
+      int t = this.activeTopics[k];
+      if (this.criterion.isConverged(this.topicResiduals[t])) {
+        this.freezeTopic(t);
+      } else {
+        this.activeTopics[remaining++] = t;
       }
     }
-    return true;
+    this.activeTopicCount = remaining;
+    return remaining == 0;
   }
   
   /**
-   * judge whether the pagerank vector for a specific topic is converged
+   * the residual of a topic in its last iteration, or null before the first one
+   * @param topic 0-based
+   * @return
    */
-  private boolean isConverged(List<Double> newv, List<Double> oldv) {
-    if (newv == null || oldv == null) return false;
-    
-    double edistance = 0.0;
-    double temp = 0.0;
+  public Residual getTopicResidual(int topic) {
+    return this.preTopicPRValues == null ? null : this.topicResiduals[topic];
+  }
+  
+  /**
+   * whether a topic has converged, as opposed to still being iterated
+   * @param topic 0-based
+   * @return
+   */
+  public boolean isTopicConverged(int topic) {
+    return this.frozen[topic];
+  }
+  
+  /**
+   * copy the final values of a converged topic into the spare buffer, so that they
+   * survive the buffer swaps of the remaining iterations
+   */
+  private void freezeTopic(int topic) {
+    this.frozen[topic] = true;
     for (int i = 0; i < this.dimension; i++) {
-      edistance += Math.pow(newv.get(i) - oldv.get(i), 2.0);
-      temp += newv.get(i);
+      this.preTopicPRValues[this.index(topic, i)] = this.topicPRValues[this.index(topic, i)];
+    }
+  }
+  
+  @Override
+  protected double[] getParameters() {
+    return new double[] { this.alpha, this.beta };
+  }
+  
+  @Override
+  protected int getVectorCount() {
+    return this.topicNumber;
+  }
+  
+  @Override
+  protected String getModelName() {
+    return "tspr";
+  }
+  
+  @Override
+  protected IterationMetrics describeIteration(int iteration, long nanos, long allocatedBytes) {
+    int[] topics = new int[this.iteratedCount];
+    Residual[] residuals = new Residual[this.iteratedCount];
+    double[] dangling = new double[this.iteratedCount];
+    for (int k = 0; k < this.iteratedCount; k++) {
+      int t = this.iteratedTopics[k];
+      topics[k] = t + 1;
+      residuals[k] = this.topicResiduals[t];
+      dangling[k] = this.topicDanglingMass[t];
     }
-    edistance = Math.sqrt(edistance) / (double) this.dimension;
-    System.out.println(temp + ", " + edistance);
-    return (edistance < 0.00000001);
+    return new IterationMetrics(this.getModelName(), iteration, nanos, allocatedBytes,
+        (long) this.graph.getEdgeCount() * this.iteratedCount, topics, residuals, dangling, this.criterion);
+  }
+  
+  /**
+   * the topic vectors also depend on the documents of each topic
+   */
+  @Override
+  protected long getFingerprint() {
+    long res = this.graph.getFingerprint();
+    for (int t = 1; t <= this.topicNumber; t++) {
+      Set<Integer> docs = this.topicDocuments.get(t);
+      List<Integer> sorted = docs == null ? new ArrayList<Integer>() : new ArrayList<Integer>(docs);
+      Collections.sort(sorted);
+      res = (res ^ -t) * 0x100000001b3L;
+      for (int docid : sorted) {
+        res = (res ^ docid) * 0x100000001b3L;
+      }
+    }
+    return res;
+  }
+  
+  @Override
+  protected double[] exportVectors() {
+    double[] res = new double[this.topicNumber * this.dimension];
+    for (int t = 0; t < this.topicNumber; t++) {
+      for (int i = 0; i < this.dimension; i++) {
+        res[t * this.dimension + i] = this.topicPRValues[this.index(t, i)];
+      }
+    }
+    return res;
+  }
+  
+  @Override
+  protected void importVectors(double[] values) {
+    for (int t = 0; t < this.topicNumber; t++) {
+      for (int i = 0; i < this.dimension; i++) {
+        this.topicPRValues[this.index(t, i)] = values[t * this.dimension + i];
+      }
+      this.activeTopics[t] = t;
+      this.frozen[t] = false;
+      this.topicIterations[t] = 0;
+    }
+    this.activeTopicCount = this.topicNumber;
+    this.preTopicPRValues = null;
+    this.updateTopicMass();
+    this.resetExtrapolation();
+  }
+  
+  /**
+   * compute the sum of the current pagerank values of each topic from scratch
+   */
+  private void updateTopicMass() {
+    for (int t = 0; t < this.topicNumber; t++) {
+      double res = 0.0;
+      for (int i = 0; i < this.dimension; i++)
+        res += this.topicPRValues[this.index(t, i)];
+      this.topicMass[t] = res;
+    }
+  }
+  
+  /**
+   * the number of iterations run for each topic until it converged
+   * @return
+   */
+  public int[] getTopicIterations() {
+    return this.topicIterations.clone();
   }
 
   public static void main(String[] args) {
     long starttime = System.currentTimeMillis();
-    if (args.length != 5) {
-      System.err.println("Usage: <topic_num> <distribution_file> <test_dir> <method> <output>");
+    if (args.length < 5) {
+      System.err.println("Usage: <topic_num> <distribution_file> <test_dir> <method> <output> [-threads <n>] [-readers <n>] [-blocked <true|false>] [-solver <jacobi|gauss_seidel>] [-relaxation <w>] [-extrapolation <none|aitken|quadratic>] [-extrapolation-period <n>] [-criterion <scaled_l2|l1|linf|relative>] [-tolerance <x>] [-max-iterations <n>] [-time-budget <ms>] [-console <true|false>] [-metrics-jsonl <file>] [-metrics-prom <file>] [-snapshot <file>] [-cache-mb <n>] [-precision <double|float|log16>] [-weights <pagerank,retrieval>]");
       return ;
     }
     
@@ -169,9 +557,19 @@ public class TopicSensitivePageRank extends AbstractPageRank {
     int method = Integer.parseInt(args[3]);
     String outputFilename = args[4];
     final int tnum = Integer.parseInt(args[0]);
+    Map<String, String> options = Utilities.parseOptions(args, 5);
+    int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : 1;
+    int readers = options.containsKey("readers") ? Integer.parseInt(options.get("readers")) : threads;
+    boolean blocked = Boolean.parseBoolean(options.get("blocked"));
+    Solver solver = options.containsKey("solver") ? Solver.valueOf(options.get("solver").toUpperCase()) : Solver.JACOBI;
+    double relaxation = options.containsKey("relaxation") ? Double.parseDouble(options.get("relaxation")) : 1.0;
+    Extrapolation extrapolation = options.containsKey("extrapolation") ? Extrapolation.valueOf(options.get("extrapolation").toUpperCase()) : Extrapolation.NONE;
+    int extrapolationPeriod = options.containsKey("extrapolation-period") ? Integer.parseInt(options.get("extrapolation-period")) : 10;
+    long cacheBytes = (options.containsKey("cache-mb") ? Long.parseLong(options.get("cache-mb")) : 0) << 20;
+    CompactRankVectors.Precision precision = options.containsKey("precision") ? CompactRankVectors.Precision.valueOf(options.get("precision").toUpperCase()) : CompactRankVectors.Precision.DOUBLE;
     
     try {
-      BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputFilename))));
+      OutputStream output = new BufferedOutputStream(new FileOutputStream(new File(outputFilename)), 1 << 20);
       
       File[] testFiles = (new File(testDir)).listFiles(new FilenameFilter() {
 
@@ -183,101 +581,49 @@ public class TopicSensitivePageRank extends AbstractPageRank {
       });
       
       // run the pagerank algorithm
-      TopicSensitivePageRank tpr = new TopicSensitivePageRank(81433, tnum, 0.75, 0.15, "transition.txt", "doc_topics.txt");
-      tpr.run();
+      TopicSensitivePageRank tpr = new TopicSensitivePageRank(81433, tnum, 0.75, 0.15, "transition.txt", "doc_topics.txt", threads, blocked);
+      tpr.setSolver(solver, relaxation);
+      tpr.setExtrapolation(extrapolation, extrapolationPeriod);
+      tpr.setConvergence(options);
+      tpr.addObservers(Utilities.createObservers(options, true));
+      if (tpr.runWithSnapshot(options.get("snapshot")) != RankSnapshot.Match.EXACT) {
+        int[] iterations = tpr.getTopicIterations();
+        for (int i = 0; i < tnum; i++) {
+          String extrapolated = extrapolation == Extrapolation.NONE ? ""
+              : ", " + tpr.getExtrapolations(i) + " extrapolations, " + tpr.getRejectedExtrapolations(i) + " taken back";
+          System.out.println("Topic " + (i + 1) + (tpr.isTopicConverged(i) ? " converged" : " stopped") + " after " + iterations[i] + " iterations" + extrapolated);
+        }
+      }
       
-      // get the pagerank scores
-      List<List<Double>> prvectors = tpr.getTopicPageRankValues();
+      // keep a compact copy of the scores and drop the engine with its doubles
+      List<RankVector> vectors = tpr.getTopicPageRankValues();
+      tpr.close();
+      if (precision != CompactRankVectors.Precision.DOUBLE) {
+        CompactRankVectors compact = new CompactRankVectors(vectors, precision);
+        compact.writeErrorReport(vectors, 1000, System.out);
+        vectors = compact.getAll();
+        tpr = null;
+      }
       
-      // get the topic distribution probability
+      // re-rank with the pagerank scores and the topic distribution probability
       Map<String, List<Double>> dist = Utilities.readTopicDist(topicDistFilename);
+      PersonalizedVectorCache cache = cacheBytes > 0 ? new PersonalizedVectorCache(vectors, dist, cacheBytes) : null;
+      ReRanker reranker = new ReRanker(vectors, dist, cache);
       
-      // read the query files
-      for (File tfile : testFiles) {
-        System.out.println("Processing " + tfile.getName());
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tfile)));
-        String userqueryid = tfile.getName().substring(0, tfile.getName().indexOf('.'));
-        Map<Integer, Double> result = new HashMap<Integer, Double>();
-        
-        String line = null;
-        while((line = reader.readLine()) != null) {
-          String[] fields = line.split(" ");
-          result.put(Integer.parseInt(fields[2]), Double.parseDouble(fields[4]));
-        }
-        
-        // compute the score by different methods
-        Set<Integer> docs = new HashSet<Integer>(result.keySet());
-        switch (method) {
-          case 1:
-            for (int docid : docs) {
-              double score = 0.0;
-              for (int i = 0; i < tnum; i++) {
-                score += dist.get(userqueryid).get(i) * prvectors.get(i).get(docid - 1);
-              }
-              result.put(docid, score);
-            }
-            break;
-          case 2:
-            for (int docid : docs) {
-              double score = 0.0;
-              for (int i = 0; i < tnum; i++) {
-                score += dist.get(userqueryid).get(i) * prvectors.get(i).get(docid - 1);
-              }
-              result.put(docid, 0.2 * score + 0.8 * result.get(docid));
-            }
-            break;
-          case 3:
-            double prmax = Double.MIN_VALUE;
-            double prmin = Double.MAX_VALUE;
-            double relmax = Double.MIN_VALUE;
-            double relmin = Double.MAX_VALUE;
-            for (int docid : docs) {
-              double prvalue = 0.0;
-              for (int i = 0; i < tnum; i++) {
-                prvalue += dist.get(userqueryid).get(i) * prvectors.get(i).get(docid - 1);
-              }
-              if (prvalue > prmax) prmax = prvalue;
-              if (prvalue < prmin) prmin = prvalue;
-              
-              double relvalue = result.get(docid);
-              if (relvalue > relmax) relmax = relvalue;
-              if (relvalue < relmin) relmin = relvalue;
-            }
-            
-            for (int docid : docs) {
-              double prvalue = 0.0;
-              for (int i = 0; i < tnum; i++) {
-                prvalue += dist.get(userqueryid).get(i) * prvectors.get(i).get(docid - 1);
-              }
-              double relvalue = result.get(docid);
-              
-              result.put(docid, 0.2 * ((prvalue - prmin) / (prmax - prmin)) + 0.8 * ((relvalue - relmin) / (relmax - relmin)));
-            }
-            break;
-        }
-        
-        // sort the result according to the final score
-        List<Entry<Integer, Double>> rankingItems = new ArrayList<Entry<Integer, Double>>(result.entrySet());
-        Collections.sort(rankingItems, new Comparator<Entry<Integer, Double>>() {
-
-          @Override
-          public int compare(Entry<Integer, Double> arg0, Entry<Integer, Double> arg1) {
-            if (arg0.getValue() > arg1.getValue()) return -1;
-            if (arg0.getValue() < arg1.getValue()) return 1;
-            return 0;
-          }
-          
-        });
-        
-        for (int i = 0; i < rankingItems.size(); i++) {
-          outputWriter.write(userqueryid + " Q0 " + rankingItems.get(i).getKey() + " " + (i+1) + " " + rankingItems.get(i).getValue() + " indri\n");
-        }
-        outputWriter.flush();
-        
-        reader.close();
+      if (options.containsKey("weights")) {
+        String[] weights = options.get("weights").split(",");
+        reranker.setWeights(Double.parseDouble(weights[0]), Double.parseDouble(weights[1]));
+      }
+      
+      // read the query files, compute the score by the method and sort the result
+      ResultListPipeline pipeline = new ResultListPipeline(reranker, method, readers, threads, 8 * (readers + threads));
+      pipeline.run(testFiles, output, System.out);
+      
+      if (cache != null) {
+        System.out.println("Vector cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions");
       }
       
-      outputWriter.close();
+      output.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
     } catch (IOException e) {
@@ -4,6 +4,47 @@ import java.util.Map.Entry;
 
 public class Utilities {
   
+  /**
+   * Parse the optional "-name value" arguments following the positional ones
+   * @param args
+   * @param from the index of the first optional argument
+   * @return
+   */
+  public static Map<String, String> parseOptions(String[] args, int from) {
+    Map<String, String> res = new HashMap<String, String>();
+    
+    for (int i = from; i < args.length; i++) {
+      if (!args[i].startsWith("-") || i + 1 == args.length) {
+        throw new IllegalArgumentException("Expected \"-name value\" but got " + args[i]);
+      }
+      res.put(args[i].substring(1), args[++i]);
+    }
+    
+    return res;
+  }
+  
+  /**
+   * the iteration observers chosen by the options -console <true|false>,
+   * -metrics-jsonl <file> and -metrics-prom <file>
+   * @param options
+   * @param console whether to print to System.out without -console
+   * @return
+   * @throws IOException if the JSON-lines file cannot be opened
+   */
+  public static List<IterationObserver> createObservers(Map<String, String> options, boolean console) throws IOException {
+    List<IterationObserver> res = new ArrayList<IterationObserver>();
+    if (options.containsKey("console") ? Boolean.parseBoolean(options.get("console")) : console) {
+      res.add(new ConsoleObserver(System.out));
+    }
+    if (options.containsKey("metrics-jsonl")) {
+      res.add(new JsonLinesObserver(options.get("metrics-jsonl")));
+    }
+    if (options.containsKey("metrics-prom")) {
+      res.add(new PrometheusTextObserver(options.get("metrics-prom")));
+    }
+    return res;
+  }
+  
   /**
    * Read the topic distribution from the file
    * @param fp
@@ -15,26 +56,27 @@ public class Utilities {
     if (fp == null || fp.length() == 0) return res;
     
     try {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(fp))));
-      
-      String line = null;
+      ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(fp)));
       
-      while( (line = reader.readLine()) != null) {
-        String[] fields = line.split(" ");
-        int userid = Integer.parseInt(fields[0]);
-        int queryid = Integer.parseInt(fields[1]);
+      while (tokenizer.hasNext()) {
+        int userid = tokenizer.nextInt();
+        int queryid = tokenizer.nextInt();
         
         List<Double> probs = new ArrayList<Double>();
-        for (int i = 2; i < fields.length; i++) {
-          probs.add(Double.parseDouble(fields[i].split(":")[1]));
+        while (!tokenizer.atEndOfLine()) {
+          tokenizer.nextInt();
+          tokenizer.skipChar(':');
+          probs.add(tokenizer.nextDouble());
         }
         
         res.put(userid + "-" + queryid, probs);
       }
       
-      reader.close();
+      tokenizer.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -53,13 +95,12 @@ public class Utilities {
     if (fp == null || fp.length() == 0) return res;
     
     try {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(fp))));
+      ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(fp)));
       
-      String line = null;
-      while((line = reader.readLine()) != null) {
-        String[] fields = line.split(" ");
-        int docid = Integer.parseInt(fields[0]);
-        int classid = Integer.parseInt(fields[1]);
+      while (tokenizer.hasNext()) {
+        int docid = tokenizer.nextInt();
+        int classid = tokenizer.nextInt();
+        tokenizer.skipLine();
         
         if (res.containsKey(classid)) {
           res.get(classid).add(docid);
@@ -71,9 +112,11 @@ public class Utilities {
         }
       }
       
-      reader.close();
+      tokenizer.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -109,6 +152,55 @@ public class Utilities {
     return Collections.unmodifiableMap(res);
   }
   
+  /**
+   * read an indri result list, one "qid Q0 docid rank score indri" line per document
+   * @param f
+   * @param tokenizer reused from list to list
+   * @return the retrieval score of each document
+   */
+  public static Map<Integer, Double> readResultList(File f, ByteTokenizer tokenizer) {
+    Map<Integer, Double> res = new HashMap<Integer, Double>();
+    
+    try {
+      res = readResultList(new FileInputStream(f), tokenizer);
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    
+    return res;
+  }
+  
+  /**
+   * read an indri result list from a stream, which is closed at the end
+   * @param in
+   * @param tokenizer
+   * @return the retrieval score of each document
+   * @throws IOException
+   */
+  public static Map<Integer, Double> readResultList(InputStream in, ByteTokenizer tokenizer) throws IOException {
+    Map<Integer, Double> res = new HashMap<Integer, Double>();
+    
+    tokenizer.reset(in);
+    try {
+      while (tokenizer.hasNext()) {
+        tokenizer.skipToken();
+        tokenizer.skipToken();
+        int docid = tokenizer.nextInt();
+        tokenizer.skipToken();
+        res.put(docid, tokenizer.nextDouble());
+        tokenizer.skipLine();
+      }
+    } finally {
+      tokenizer.close();
+    }
+    
+    return res;
+  }
+  
   /**
    * read the transition matrix from the file
    * @param fp
@@ -120,13 +212,12 @@ public class Utilities {
     if (fp == null || fp.length() == 0) return res;
     
     try {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(fp))));
+      ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(fp)));
  
-      String line = null;
-      while((line = reader.readLine()) != null) {
-        String[] fields = line.split(" ");
-        int from = Integer.parseInt(fields[0]);
-        int to = Integer.parseInt(fields[1]);
+      while (tokenizer.hasNext()) {
+        int from = tokenizer.nextInt();
+        int to = tokenizer.nextInt();
+        tokenizer.skipLine();
         
         if (res.containsKey(from)) {
           res.get(from).add(to);
@@ -137,6 +228,8 @@ public class Utilities {
           res.put(from, cset);
         }
       }
+      
+      tokenizer.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
     } catch (NumberFormatException e) {
@@ -148,6 +241,98 @@ public class Utilities {
     return Collections.unmodifiableMap(res);
   }
   
+  /**
+   * read the transition matrix from the file into compressed sparse rows. the file is
+   * either an edge list or a binary graph file written by GraphFile.
+   * @param fp
+   * @param d the number of nodes
+   * @return
+   */
+  public static SparseGraph readSparseGraph(String fp, int d) {
+    return readSparseGraph(fp, d, 1);
+  }
+  
+  /**
+   * read the transition matrix from the file into compressed sparse rows, parsing an
+   * edge list on several threads
+   * @param fp
+   * @param d the number of nodes
+   * @param threads
+   * @return
+   */
+  public static SparseGraph readSparseGraph(String fp, int d, int threads) {
+    if (fp == null || fp.length() == 0) return SparseGraph.fromEdges(d, new int[0], new int[0], 0);
+    
+    try {
+      if (GraphFile.isGraphFile(fp)) {
+        return GraphFile.read(fp, d);
+      }
+      
+      return EdgeListFile.read(fp, d, threads);
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
+    } catch (IllegalArgumentException e) {
+      // a node id out of range; the chunks are parsed in parallel, so the line is looked up again
+      long line = -1;
+      try {
+        line = EdgeListFile.findNodeOutOfRange(fp, d);
+      } catch (IOException ioe) {
+        ioe.printStackTrace();
+      }
+      // a fork-join pool rethrows a copy of the exception caused by the original
+      Throwable cause = e.getCause() instanceof IllegalArgumentException ? e.getCause() : e;
+      System.err.println(fp + (line > 0 ? ", line " + line : "") + ": " + cause.getMessage());
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    
+    return SparseGraph.fromEdges(d, new int[0], new int[0], 0);
+  }
+  
+  /**
+   * read an edge delta, one "+ from to" or "- from to" line per added or removed edge
+   * @param fp
+   * @return the added edges as res[0] (sources) and res[1] (targets), the removed ones as res[2] and res[3]
+   */
+  public static int[][] readEdgeDelta(String fp) {
+    int[][] res = new int[][] { new int[16], new int[16], new int[16], new int[16] };
+    int added = 0;
+    int removed = 0;
+    
+    try {
+      ByteTokenizer tokenizer = new ByteTokenizer(new FileInputStream(new File(fp)));
+      
+      while (tokenizer.hasNext()) {
+        char op = tokenizer.nextChar();
+        int from = tokenizer.nextInt();
+        int to = tokenizer.nextInt();
+        tokenizer.skipLine();
+        
+        int k = op == '+' ? 0 : op == '-' ? 2 : -1;
+        if (k < 0) continue;
+        int n = k == 0 ? added++ : removed++;
+        if (n == res[k].length) {
+          res[k] = Arrays.copyOf(res[k], n * 2);
+          res[k + 1] = Arrays.copyOf(res[k + 1], n * 2);
+        }
+        res[k][n] = from;
+        res[k + 1][n] = to;
+      }
+      
+      tokenizer.close();
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    
+    return new int[][] { Arrays.copyOf(res[0], added), Arrays.copyOf(res[1], added), Arrays.copyOf(res[2], removed), Arrays.copyOf(res[3], removed) };
+  }
+  
   /**
    * transpose the transition matrix
    * @param matrix
@@ -0,0 +1,429 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes a reproducible synthetic workload in the formats of the shipped data: the
+ * transition matrix as text or as a binary graph file, doc_topics.txt, the user and
+ * query topic distributions, and one result list per user-query. Everything is streamed,
+ * so graphs far larger than the heap can be written.
+ *
+ * The rows of the graph are generated node by node from a random stream seeded by the
+ * node, so a row can be produced again without keeping it. The out-links follow one of
+ *   RMAT      the recursive matrix model: every edge picks one quadrant of the adjacency
+ *             matrix per level with probabilities a, b, c and 1 - a - b - c. a node's
+ *             out-degree is its expected share of the edges, and its targets are drawn
+ *             from the quadrants of its own row
+ *   POWERLAW  Pareto distributed out-degrees with the given exponent, and targets drawn
+ *             with a density that falls off as a power of the node id
+ * A set fraction of the nodes have no out-links, the others at least one.
+ */
+public class WorkloadGenerator {
+  public enum Model {
+    RMAT, POWERLAW
+  }
+
+  private final int nodes;
+
+  // the expected number of edges, before duplicates and self-links are dropped
+  private final long edges;
+
+  private final long seed;
+
+  private Model model = Model.RMAT;
+
+  // the quadrant probabilities of R-MAT, the last one is 1 - a - b - c
+  private double a = 0.57;
+  private double b = 0.19;
+  private double c = 0.19;
+
+  // the tail exponent of the out-degrees of POWERLAW
+  private double exponent = 2.5;
+
+  private double dangling = 0.1;
+
+  // the bits of a node id, and the total R-MAT weight of the nodes below nodes
+  private final int levels;
+  private double rmatTotal;
+
+  public WorkloadGenerator(int nodes, long edges, long seed) {
+    if (nodes < 2 || edges < 0) {
+      throw new IllegalArgumentException("Need at least 2 nodes and no negative edge count: " + nodes + ", " + edges);
+    }
+    this.nodes = nodes;
+    this.edges = edges;
+    this.seed = seed;
+    this.levels = 32 - Integer.numberOfLeadingZeros(nodes - 1);
+    this.rmatTotal = this.rmatTotal();
+  }
+
+  /**
+   * use the R-MAT model
+   * @param a the probability of the top left quadrant
+   * @param b top right
+   * @param c bottom left; bottom right gets the rest
+   */
+  public void setRmat(double a, double b, double c) {
+    if (a <= 0 || b <= 0 || c <= 0 || a + b + c >= 1.0) {
+      throw new IllegalArgumentException("R-MAT probabilities must be positive and sum to less than 1: " + a + ", " + b + ", " + c);
+    }
+    this.model = Model.RMAT;
+    this.a = a;
+    this.b = b;
+    this.c = c;
+    this.rmatTotal = this.rmatTotal();
+  }
+
+  /**
+   * use the POWERLAW model
+   * @param x the tail exponent of the out-degrees, above 2 so that the mean exists
+   */
+  public void setPowerLaw(double x) {
+    if (x <= 2.0) {
+      throw new IllegalArgumentException("Exponent must be above 2: " + x);
+    }
+    this.model = Model.POWERLAW;
+    this.exponent = x;
+  }
+
+  /**
+   * @param f the fraction of the nodes without out-links, in [0, 1)
+   */
+  public void setDanglingFraction(double f) {
+    if (f < 0.0 || f >= 1.0) {
+      throw new IllegalArgumentException("Dangling fraction must be in [0, 1): " + f);
+    }
+    this.dangling = f;
+  }
+
+  public int getNodes() {
+    return nodes;
+  }
+
+  /**
+   * the R-MAT weight of a row, the probability that an edge starts in it
+   */
+  private double rmatWeight(int i) {
+    double top = this.a + this.b;
+    double res = 1.0;
+    for (int l = this.levels - 1; l >= 0; l--) {
+      res *= ((i >>> l) & 1) == 0 ? top : 1.0 - top;
+    }
+    return res;
+  }
+
+  /**
+   * the sum of the weights of the rows below nodes. the rows under a prefix weigh the
+   * prefix alone, so every 1 bit of nodes adds the prefix above it followed by a 0
+   */
+  private double rmatTotal() {
+    double top = this.a + this.b;
+    double res = 0.0;
+    double prefix = 1.0;
+    for (int l = this.levels - 1; l >= 0; l--) {
+      if (((this.nodes >>> l) & 1) == 1) {
+        res += prefix * top;
+        prefix *= 1.0 - top;
+      } else {
+        prefix *= top;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * the out-links of a node
+   * @param i 0-based
+   * @return the targets, 0-based, sorted and distinct
+   */
+  public int[] row(int i) {
+    SplittableRandom rnd = new SplittableRandom(this.seed * 0x9E3779B97F4A7C15L + i);
+    if (rnd.nextDouble() < this.dangling) return new int[0];
+
+    // the expected out-degree of the nodes with out-links, rounded up or down at random
+    double mean;
+    if (this.model == Model.RMAT) {
+      mean = this.edges * this.rmatWeight(i) / this.rmatTotal / (1.0 - this.dangling);
+    } else {
+      double scale = this.edges / (double) this.nodes / (1.0 - this.dangling) * (this.exponent - 2.0) / (this.exponent - 1.0);
+      mean = scale / Math.pow(1.0 - rnd.nextDouble(), 1.0 / (this.exponent - 1.0));
+    }
+    int degree = (int) Math.max(1, Math.min(this.nodes - 1, Math.floor(mean + rnd.nextDouble())));
+
+    int[] res = new int[degree];
+    for (int k = 0; k < degree; k++) {
+      int j;
+      do {
+        j = this.model == Model.RMAT ? this.rmatTarget(i, rnd) : (int) (this.nodes * Math.pow(rnd.nextDouble(), 3.0));
+      } while (j == i || j >= this.nodes);
+      res[k] = j;
+    }
+
+    // drop the duplicates
+    Arrays.sort(res);
+    int size = 0;
+    for (int k = 0; k < res.length; k++) {
+      if (k == 0 || res[k] != res[k - 1]) res[size++] = res[k];
+    }
+    return size == res.length ? res : Arrays.copyOf(res, size);
+  }
+
+  /**
+   * pick the column of an edge in row i, one bit per level, given the half of the
+   * matrix the row falls in at that level
+   */
+  private int rmatTarget(int i, SplittableRandom rnd) {
+    double left = this.a / (this.a + this.b);
+    double bottomLeft = this.c / (1.0 - this.a - this.b);
+    int res = 0;
+    for (int l = this.levels - 1; l >= 0; l--) {
+      double p = ((i >>> l) & 1) == 0 ? left : bottomLeft;
+      res = (res << 1) | (rnd.nextDouble() < p ? 0 : 1);
+    }
+    return res;
+  }
+
+  /**
+   * write the graph as a "from to" edge list, 1-based like transition.txt
+   * @param fp
+   * @return the number of edges
+   * @throws IOException
+   */
+  public long writeEdgeList(String fp) throws IOException {
+    LineWriter out = new LineWriter(new FileOutputStream(fp));
+    long m = 0;
+    try {
+      for (int i = 0; i < this.nodes; i++) {
+        int[] row = this.row(i);
+        for (int j : row) {
+          out.put(i + 1).put(' ').put(j + 1).put('\n');
+        }
+        m += row.length;
+      }
+    } finally {
+      out.close();
+    }
+    return m;
+  }
+
+  /**
+   * write the graph as a binary graph file
+   * @param fp
+   * @return the number of edges
+   * @throws IOException
+   */
+  public long writeGraphFile(String fp) throws IOException {
+    return GraphFile.write(this.nodes, new GraphFile.RowSource() {
+
+      @Override
+      public int[] row(int i) {
+        return WorkloadGenerator.this.row(i);
+      }
+
+    }, fp);
+  }
+
+  /**
+   * write the topics of the documents like doc_topics.txt. the topics are skewed, the
+   * first ones being the most common, and a quarter of the documents get a second one
+   * @param fp
+   * @param topics
+   * @throws IOException
+   */
+  public void writeDocTopics(String fp, int topics) throws IOException {
+    SplittableRandom rnd = new SplittableRandom(this.seed ^ 0x646f635f746f7073L);
+    LineWriter out = new LineWriter(new FileOutputStream(fp));
+    try {
+      for (int i = 1; i <= this.nodes; i++) {
+        int t = skewedTopic(rnd, topics);
+        out.put(i).put(' ').put(t).put('\n');
+        if (topics > 1 && rnd.nextInt(4) == 0) {
+          int second = skewedTopic(rnd, topics - 1);
+          out.put(i).put(' ').put(second >= t ? second + 1 : second).put('\n');
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static int skewedTopic(SplittableRandom rnd, int topics) {
+    return 1 + (int) (topics * rnd.nextDouble() * rnd.nextDouble());
+  }
+
+  /**
+   * write a topic distribution per user-query like user-topic-distro.txt, each one
+   * concentrated on a few topics
+   * @param fp
+   * @param topics
+   * @param users
+   * @param queries per user
+   * @param salt tells the user and the query distributions apart
+   * @throws IOException
+   */
+  public void writeTopicDist(String fp, int topics, int users, int queries, long salt) throws IOException {
+    SplittableRandom rnd = new SplittableRandom(this.seed ^ salt);
+    Writer out = new BufferedWriter(new FileWriter(fp));
+    try {
+      double[] p = new double[topics];
+      for (int u = 1; u <= users; u++) {
+        for (int q = 1; q <= queries; q++) {
+          double sum = 0.0;
+          for (int t = 0; t < topics; t++) {
+            p[t] = Math.pow(rnd.nextDouble(), 4.0);
+            sum += p[t];
+          }
+          StringBuilder line = new StringBuilder();
+          line.append(u).append(' ').append(q);
+          for (int t = 0; t < topics; t++) {
+            line.append(' ').append(t + 1).append(':').append(String.format(Locale.ROOT, "%.6f", p[t] / sum));
+          }
+          out.write(line.append('\n').toString());
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * write a result list per user-query like indri-lists, distinct documents with
+   * decreasing retrieval scores
+   * @param dir
+   * @param users
+   * @param queries per user
+   * @param results per user-query
+   * @throws IOException
+   */
+  public void writeResultLists(File dir, int users, int queries, int results) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    SplittableRandom rnd = new SplittableRandom(this.seed ^ 0x696e6472692d6c73L);
+    int n = Math.min(results, this.nodes);
+    for (int u = 1; u <= users; u++) {
+      for (int q = 1; q <= queries; q++) {
+        Set<Integer> docs = new LinkedHashSet<Integer>();
+        while (docs.size() < n) {
+          docs.add(1 + rnd.nextInt(this.nodes));
+        }
+
+        Writer out = new BufferedWriter(new FileWriter(new File(dir, u + "-" + q + ".results.txt")));
+        try {
+          double score = -5.0 - rnd.nextDouble() * 2.0;
+          int rank = 1;
+          for (int docid : docs) {
+            out.write("0 Q0 " + docid + " " + rank + " " + String.format(Locale.ROOT, "%.5f", score) + " indri\n");
+            score -= rnd.nextDouble() * 0.02;
+            rank++;
+          }
+        } finally {
+          out.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * buffered ASCII output with integers formatted in place
+   */
+  private static class LineWriter implements Closeable {
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[1 << 16];
+
+    private int size;
+
+    LineWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    LineWriter put(char ch) throws IOException {
+      if (this.size == this.buffer.length) this.flush();
+      this.buffer[this.size++] = (byte) ch;
+      return this;
+    }
+
+    LineWriter put(int v) throws IOException {
+      if (this.size + 11 > this.buffer.length) this.flush();
+      if (v < 0) {
+        this.buffer[this.size++] = '-';
+        v = -v;
+      }
+      int end = this.size + 1;
+      for (int rest = v / 10; rest > 0; rest /= 10) {
+        end++;
+      }
+      int k = end;
+      do {
+        this.buffer[--k] = (byte) ('0' + v % 10);
+        v /= 10;
+      } while (v > 0);
+      this.size = end;
+      return this;
+    }
+
+    private void flush() throws IOException {
+      this.out.write(this.buffer, 0, this.size);
+      this.size = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        this.flush();
+      } finally {
+        this.out.close();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: <output_dir> [-nodes <n>] [-edges <m>] [-model <rmat|powerlaw>] [-rmat <a,b,c>] [-exponent <x>] [-dangling <f>] [-seed <n>] [-format <text|binary|both>] [-topics <n>] [-users <n>] [-queries <n>] [-results <n>]");
+      return ;
+    }
+
+    File dir = new File(args[0]);
+    Map<String, String> options = Utilities.parseOptions(args, 1);
+    int nodes = options.containsKey("nodes") ? Integer.parseInt(options.get("nodes")) : 81433;
+    long edges = options.containsKey("edges") ? Long.parseLong(options.get("edges")) : 1000000L;
+    long seed = options.containsKey("seed") ? Long.parseLong(options.get("seed")) : 42L;
+    String format = options.containsKey("format") ? options.get("format") : "text";
+    int topics = options.containsKey("topics") ? Integer.parseInt(options.get("topics")) : 12;
+    int users = options.containsKey("users") ? Integer.parseInt(options.get("users")) : 8;
+    int queries = options.containsKey("queries") ? Integer.parseInt(options.get("queries")) : 6;
+    int results = options.containsKey("results") ? Integer.parseInt(options.get("results")) : 500;
+
+    WorkloadGenerator generator = new WorkloadGenerator(nodes, edges, seed);
+    if ("powerlaw".equals(options.get("model"))) {
+      generator.setPowerLaw(options.containsKey("exponent") ? Double.parseDouble(options.get("exponent")) : 2.5);
+    } else if (options.containsKey("rmat")) {
+      String[] p = options.get("rmat").split(",");
+      generator.setRmat(Double.parseDouble(p[0]), Double.parseDouble(p[1]), Double.parseDouble(p[2]));
+    }
+    if (options.containsKey("dangling")) {
+      generator.setDanglingFraction(Double.parseDouble(options.get("dangling")));
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      System.err.println("Cannot create " + dir);
+      return ;
+    }
+
+    long starttime = System.currentTimeMillis();
+    if (!"binary".equals(format)) {
+      long m = generator.writeEdgeList(new File(dir, "transition.txt").getPath());
+      System.out.println("Wrote " + m + " edges to transition.txt in " + (System.currentTimeMillis() - starttime) + " ms");
+    }
+    if (!"text".equals(format)) {
+      starttime = System.currentTimeMillis();
+      long m = generator.writeGraphFile(new File(dir, "transition.bin").getPath());
+      System.out.println("Wrote " + m + " edges to transition.bin in " + (System.currentTimeMillis() - starttime) + " ms");
+    }
+
+    generator.writeDocTopics(new File(dir, "doc_topics.txt").getPath(), topics);
+    generator.writeTopicDist(new File(dir, "user-topic-distro.txt").getPath(), topics, users, queries, 0x75736572L);
+    generator.writeTopicDist(new File(dir, "query-topic-distro.txt").getPath(), topics, users, queries, 0x71756572L);
+    generator.writeResultLists(new File(dir, "indri-lists"), users, queries, results);
+    System.out.println("Wrote the topics and " + (users * queries) + " result lists");
+  }
+}
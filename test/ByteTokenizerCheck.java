@@ -0,0 +1,184 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Checks ByteTokenizer.nextDouble() against Double.parseDouble, bit for bit, on signed
+ * numbers, exponents, mantissas too long for the fast path, -0 and tokens both reject.
+ * The numbers are read from a stream, a byte buffer and a stream that returns a few
+ * bytes per read, and are placed across the boundary of the tokenizer's buffer.
+ * Exits with status 1 if a number does not match.
+ *
+ * Type suffixes such as "1d" and hexadecimal numbers are not part of the format and
+ * are left out; Double.parseDouble accepts them.
+ *
+ * usage: java -cp out ByteTokenizerCheck
+ */
+public class ByteTokenizerCheck {
+  // the size of the tokenizer's buffer
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  private static final String[] SPECIAL = {
+    "0", "-0", "+0", "-0.0", "0e5", "-0e-5", "1", "-1", "+1", ".5", "-.5", "5.", "1e0", "1E+2", "1e-2",
+    "-2.5e-3", "1e22", "1e23", "1e-22", "1e-23", "4.9e-324", "2e-324", "1e-400", "1.7976931348623157e308",
+    "1.7976931348623159e308", "1e400", "-1e400", "2.2250738585072012e-308", "9007199254740992",
+    "9007199254740993", "123456789012345678", "1234567890123456789", "0.1000000000000000055511151231257827021181583404541015625",
+    "0.30000000000000001665334536937734810635447502136230468750001", "00000000000000000000000001.5",
+    "1.000000000000000000000000000000000000000001", "-3.9386186e-05", "-11.0458", "NaN", "Infinity", "-Infinity"
+  };
+
+  private static final String[] BAD = {
+    "-", "+", ".", "e5", "1e", "1e+", "-.e1", "1.5x", "1..5", "1e5.5", "--1", "abc", "0.5-"
+  };
+
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(7);
+    List<String> tokens = new ArrayList<String>(Arrays.asList(SPECIAL));
+    for (int i = 0; i < 200000; i++) {
+      tokens.add(randomNumber(random));
+    }
+
+    // the numbers one after another, several buffers' worth
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < tokens.size(); i++) {
+      text.append(tokens.get(i)).append(i % 10 == 9 ? "\n" : i % 3 == 0 ? "\t" : " ");
+    }
+    byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+    checkAll("stream", new ByteTokenizer(new ByteArrayInputStream(bytes)), tokens);
+    checkAll("buffer", new ByteTokenizer(ByteBuffer.wrap(bytes)), tokens);
+    checkAll("trickle", new ByteTokenizer(new TrickleInputStream(bytes)), tokens);
+
+    // every split of a number by the end of the buffer, and numbers longer than a token
+    // is parsed in place
+    List<String> lengthy = new ArrayList<String>();
+    lengthy.add("-1.2345678901234567890123e-7");
+    lengthy.add(randomDigits(random, 600) + "." + randomDigits(random, 300) + "e-700");
+    lengthy.add("0." + randomDigits(random, 1000));
+    for (String token : lengthy) {
+      for (int split = 0; split <= token.length() + 1; split++) {
+        List<String> two = Arrays.asList(token, "-0.5");
+        String padded = pad(BUFFER_BYTES - split) + token + "\n-0.5\n";
+        byte[] b = padded.getBytes(StandardCharsets.US_ASCII);
+        checkAll("split " + split, new ByteTokenizer(new ByteArrayInputStream(b)), two);
+        checkAll("split " + split, new ByteTokenizer(ByteBuffer.wrap(b)), two);
+      }
+    }
+
+    // tokens both reject, each followed by a number to check the tokenizer moved past it
+    ByteTokenizer tokenizer = new ByteTokenizer();
+    for (String token : BAD) {
+      for (String end : new String[] { "", "\n" }) {
+        tokenizer.reset(ByteBuffer.wrap((token + end).getBytes(StandardCharsets.US_ASCII)));
+        check("bad", tokenizer, token);
+      }
+      tokenizer.reset(ByteBuffer.wrap((token + " 2.5").getBytes(StandardCharsets.US_ASCII)));
+      check("bad", tokenizer, token);
+      check("after bad", tokenizer, "2.5");
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("ByteTokenizerCheck passed");
+  }
+
+  private static void checkAll(String name, ByteTokenizer tokenizer, List<String> tokens) throws IOException {
+    for (String token : tokens) {
+      check(name, tokenizer, token);
+    }
+    if (tokenizer.hasNext()) {
+      fail(name + ": tokens left over");
+    }
+    tokenizer.close();
+  }
+
+  /**
+   * read one number and compare it with Double.parseDouble, including the exception
+   */
+  private static void check(String name, ByteTokenizer tokenizer, String token) throws IOException {
+    String expected;
+    try {
+      expected = Long.toHexString(Double.doubleToLongBits(Double.parseDouble(token)));
+    } catch (NumberFormatException e) {
+      expected = "NumberFormatException";
+    }
+    String actual;
+    try {
+      actual = Long.toHexString(Double.doubleToLongBits(tokenizer.nextDouble()));
+    } catch (NumberFormatException e) {
+      actual = "NumberFormatException";
+    }
+    if (!expected.equals(actual)) {
+      fail(name + ": " + abbreviate(token) + " read as " + actual + ", expected " + expected);
+    }
+  }
+
+  private static void fail(String message) {
+    if (failures < 20) System.out.println(message);
+    failures++;
+  }
+
+  private static String abbreviate(String token) {
+    return token.length() <= 60 ? token : token.substring(0, 60) + "... (" + token.length() + " bytes)";
+  }
+
+  /**
+   * a number with an optional sign, fraction and exponent; a third of them have more
+   * digits than the fast path of the tokenizer takes
+   */
+  private static String randomNumber(Random random) {
+    StringBuilder res = new StringBuilder();
+    int sign = random.nextInt(4);
+    if (sign == 0) res.append('-');
+    if (sign == 1) res.append('+');
+    int longest = random.nextInt(3) == 0 ? 30 : 9;
+    int integer = random.nextInt(longest);
+    int fraction = random.nextInt(longest);
+    if (integer + fraction == 0) integer = 1;
+    res.append(randomDigits(random, integer));
+    if (fraction > 0 || random.nextBoolean()) {
+      res.append('.').append(randomDigits(random, fraction));
+    }
+    if (random.nextInt(3) == 0) {
+      res.append(random.nextBoolean() ? 'e' : 'E');
+      int esign = random.nextInt(3);
+      if (esign == 0) res.append('-');
+      if (esign == 1) res.append('+');
+      res.append(random.nextInt(random.nextBoolean() ? 30 : 400));
+    }
+    return res.toString();
+  }
+
+  private static String randomDigits(Random random, int n) {
+    char[] res = new char[n];
+    for (int i = 0; i < n; i++) {
+      // zeros are frequent to give trailing and leading zeros
+      res[i] = random.nextInt(4) == 0 ? '0' : (char) ('0' + random.nextInt(10));
+    }
+    return new String(res);
+  }
+
+  private static String pad(int n) {
+    char[] res = new char[Math.max(n, 0)];
+    Arrays.fill(res, ' ');
+    return new String(res);
+  }
+
+  /**
+   * returns at most 3 bytes per read, as a slow pipe would
+   */
+  private static class TrickleInputStream extends ByteArrayInputStream {
+    TrickleInputStream(byte[] buf) {
+      super(buf);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 3));
+    }
+  }
+}
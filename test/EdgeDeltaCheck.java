@@ -0,0 +1,102 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks GlobalPageRank.applyEdgeDelta() against a full recompute on the changed graph,
+ * over random graphs and random deltas. Exits with status 1 if a score is off.
+ *
+ * usage: java -cp out EdgeDeltaCheck
+ */
+public class EdgeDeltaCheck {
+  private static final ConvergenceCriterion TIGHT = new ConvergenceCriterion.Tolerance(ConvergenceCriterion.Tolerance.Norm.L1, 1e-13);
+
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      int d = 50 + random.nextInt(200);
+      int threads = 1 + round % 3;
+      check(random, d, 4 * d, 1 + random.nextInt(20), threads, "round " + round);
+    }
+    // a delta large enough for the push to hand over to run()
+    check(random, 100, 300, 200, 2, "large delta");
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("EdgeDeltaCheck passed");
+  }
+
+  private static void check(Random random, int d, int m, int changes, int threads, String name) throws IOException {
+    // a random graph, some nodes dangling
+    List<int[]> edges = new ArrayList<int[]>();
+    for (int i = 0; i < m; i++) {
+      int from = 1 + random.nextInt(d);
+      if (from % 7 == 0) continue;
+      edges.add(new int[] { from, 1 + random.nextInt(d) });
+    }
+
+    // remove existing edges and add new ones
+    int[] addFrom = new int[changes];
+    int[] addTo = new int[changes];
+    int[] removeFrom = new int[changes];
+    int[] removeTo = new int[changes];
+    for (int i = 0; i < changes; i++) {
+      addFrom[i] = 1 + random.nextInt(d);
+      addTo[i] = 1 + random.nextInt(d);
+      int[] removed = edges.get(random.nextInt(edges.size()));
+      removeFrom[i] = removed[0];
+      removeTo[i] = removed[1];
+    }
+    List<int[]> changed = new ArrayList<int[]>();
+    Set<Long> removedKeys = new HashSet<Long>();
+    for (int i = 0; i < changes; i++) {
+      removedKeys.add(key(removeFrom[i], removeTo[i]));
+    }
+    for (int[] e : edges) {
+      if (!removedKeys.contains(key(e[0], e[1]))) changed.add(e);
+    }
+    for (int i = 0; i < changes; i++) {
+      changed.add(new int[] { addFrom[i], addTo[i] });
+    }
+
+    GlobalPageRank incremental = new GlobalPageRank(d, 0.85, writeEdges(edges), threads);
+    incremental.setConvergence(TIGHT, 10000, 0);
+    incremental.run();
+    incremental.applyEdgeDelta(addFrom, addTo, removeFrom, removeTo, 1e-14);
+
+    GlobalPageRank full = new GlobalPageRank(d, 0.85, writeEdges(changed), 1);
+    full.setConvergence(TIGHT, 10000, 0);
+    full.run();
+
+    RankVector a = incremental.getPageRankValues();
+    RankVector b = full.getPageRankValues();
+    double worst = 0.0;
+    for (int i = 0; i < d; i++) {
+      worst = Math.max(worst, Math.abs(a.get(i) - b.get(i)));
+    }
+    if (worst > 1e-10) {
+      System.out.println(name + ": largest difference " + worst + " on " + d + " nodes, " + changes + " changes, " + threads + " threads");
+      failures++;
+    }
+    incremental.close();
+    full.close();
+  }
+
+  private static long key(int from, int to) {
+    return ((long) from << 32) | to;
+  }
+
+  private static String writeEdges(List<int[]> edges) throws IOException {
+    File f = File.createTempFile("edges", ".txt");
+    f.deleteOnExit();
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+    for (int[] e : edges) {
+      out.println(e[0] + " " + e[1]);
+    }
+    out.close();
+    return f.getPath();
+  }
+}
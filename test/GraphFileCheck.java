@@ -0,0 +1,135 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that a graph written to a binary graph file, from a SparseGraph or row by row,
+ * is read back as the graph SparseGraph.fromEdges() builds from the same edges, and
+ * that damaged files and files of another size are rejected. Exits with status 1 if a
+ * check fails.
+ *
+ * usage: java -cp out GraphFileCheck
+ */
+public class GraphFileCheck {
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException {
+    File dir = Files.createTempDirectory("graphs").toFile();
+    File f = new File(dir, "graph.bin");
+    Random random = new Random(3);
+    for (int round = 0; round < 40; round++) {
+      int d = 1 + random.nextInt(round % 10 == 0 ? 5000 : 100);
+      int m = random.nextInt(6 * d);
+      int[] from = new int[m];
+      int[] to = new int[m];
+      for (int k = 0; k < m; k++) {
+        from[k] = 1 + random.nextInt(d);
+        // the multiples of 5 without out links, and duplicated edges
+        if (from[k] % 5 == 0) from[k] = 1 + random.nextInt(4) % d;
+        to[k] = k > 0 && random.nextInt(10) == 0 ? to[k - 1] : 1 + random.nextInt(d);
+      }
+      final SparseGraph expected = SparseGraph.fromEdges(d, from, to, m);
+
+      GraphFile.write(expected, f.getPath());
+      compare("round " + round + ", from a graph", GraphFile.read(f.getPath(), d), expected);
+
+      int edges = GraphFile.write(d, new GraphFile.RowSource() {
+
+        @Override
+        public int[] row(int i) {
+          int[] offsets = expected.getOutOffsets();
+          return Arrays.copyOfRange(expected.getOutTargets(), offsets[i], offsets[i + 1]);
+        }
+
+      }, f.getPath());
+      if (edges != expected.getEdgeCount()) {
+        fail("round " + round + ": " + edges + " edges written, expected " + expected.getEdgeCount());
+      }
+      compare("round " + round + ", by rows", GraphFile.read(f.getPath(), d), expected);
+    }
+
+    checkRejected(f, random);
+
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("GraphFileCheck passed");
+  }
+
+  private static void compare(String name, SparseGraph actual, SparseGraph expected) {
+    if (actual.getDimension() != expected.getDimension() || actual.getEdgeCount() != expected.getEdgeCount()) {
+      fail(name + ": " + actual.getDimension() + " nodes and " + actual.getEdgeCount() + " edges, expected "
+          + expected.getDimension() + " and " + expected.getEdgeCount());
+      return;
+    }
+    if (actual.getFingerprint() != expected.getFingerprint()) {
+      fail(name + ": the fingerprints differ");
+    }
+    expect(name + ", out offsets", actual.getOutOffsets(), expected.getOutOffsets());
+    expect(name + ", out targets", actual.getOutTargets(), expected.getOutTargets());
+    expect(name + ", in offsets", actual.getInOffsets(), expected.getInOffsets());
+    expect(name + ", in sources", actual.getInSources(), expected.getInSources());
+    expect(name + ", out degrees", actual.getOutDegree(), expected.getOutDegree());
+    expect(name + ", dangling nodes", actual.getDanglingNodes(), expected.getDanglingNodes());
+  }
+
+  private static void expect(String name, int[] actual, int[] expected) {
+    if (!Arrays.equals(actual, expected)) {
+      fail(name + " differ");
+    }
+  }
+
+  /**
+   * a flipped payload byte, another node count and a text file all have to be rejected
+   */
+  private static void checkRejected(File f, Random random) throws IOException {
+    int d = 300;
+    int[] from = new int[1000];
+    int[] to = new int[1000];
+    for (int k = 0; k < from.length; k++) {
+      from[k] = 1 + random.nextInt(d);
+      to[k] = 1 + random.nextInt(d);
+    }
+    GraphFile.write(SparseGraph.fromEdges(d, from, to, from.length), f.getPath());
+    if (!GraphFile.isGraphFile(f.getPath())) {
+      fail("a graph file is not taken for one");
+    }
+    expectRejected("other node count", f, d + 1);
+
+    byte[] good = Files.readAllBytes(f.toPath());
+    for (int round = 0; round < 50; round++) {
+      byte[] bad = good.clone();
+      // the payload starts after the 24 header bytes
+      int at = 24 + random.nextInt(bad.length - 24);
+      bad[at] ^= (byte) (1 << random.nextInt(8));
+      Files.write(f.toPath(), bad);
+      expectRejected("payload byte " + at, f, d);
+    }
+
+    Files.write(f.toPath(), "1 2\n2 1\n3 1\n4 1\n5 1\n6 1\n".getBytes("US-ASCII"));
+    if (GraphFile.isGraphFile(f.getPath())) {
+      fail("an edge list is taken for a graph file");
+    }
+    expectRejected("edge list", f, d);
+  }
+
+  private static void expectRejected(String name, File f, int d) {
+    try {
+      GraphFile.read(f.getPath(), d);
+      fail(name + ": read without an error");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static void fail(String message) {
+    if (failures < 20) System.out.println(message);
+    failures++;
+  }
+}
@@ -0,0 +1,139 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that RankSnapshot.read() gives back what write() wrote, bit for bit, that it
+ * rejects damaged files, and the answers of match() for changed inputs. Exits with
+ * status 1 if a check fails.
+ *
+ * usage: java -cp out RankSnapshotCheck
+ */
+public class RankSnapshotCheck {
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException {
+    File dir = Files.createTempDirectory("snapshots").toFile();
+    Random random = new Random(5);
+
+    // vectors of one value, and vectors across the blocks the values are read in
+    int[] dimensions = { 1, 7, 1000, (1 << 17) + 3 };
+    for (int d : dimensions) {
+      for (int vectors = 1; vectors <= 3; vectors++) {
+        double[] values = new double[d * vectors];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = random.nextDouble() / d;
+        }
+        values[0] = -0.0;
+        if (values.length > 1) values[1] = Double.NaN;
+        double[] parameters = new double[random.nextInt(5)];
+        for (int k = 0; k < parameters.length; k++) {
+          parameters[k] = random.nextGaussian();
+        }
+        roundTrip(new File(dir, "s-" + d + "-" + vectors), new RankSnapshot(random.nextLong(), parameters, d, values));
+      }
+    }
+
+    checkDamage(dir, random);
+    checkMatch();
+
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("RankSnapshotCheck passed");
+  }
+
+  private static void roundTrip(File f, RankSnapshot snapshot) throws IOException {
+    String name = snapshot.getDimension() + " x " + snapshot.getVectorCount();
+    snapshot.write(f.getPath());
+    if (new File(f.getPath() + ".tmp").exists()) {
+      fail(name + ": the temporary file was left behind");
+    }
+    RankSnapshot read = RankSnapshot.read(f.getPath());
+    if (read.getFingerprint() != snapshot.getFingerprint()) {
+      fail(name + ": fingerprint " + read.getFingerprint() + ", expected " + snapshot.getFingerprint());
+    }
+    if (!Arrays.equals(read.getParameters(), snapshot.getParameters())) {
+      fail(name + ": parameters " + Arrays.toString(read.getParameters()) + ", expected " + Arrays.toString(snapshot.getParameters()));
+    }
+    if (read.getDimension() != snapshot.getDimension() || read.getVectorCount() != snapshot.getVectorCount()) {
+      fail(name + ": read as " + read.getDimension() + " x " + read.getVectorCount());
+    }
+    // Arrays.equals compares the bits, so -0.0 and NaN have to come back as they were
+    if (!Arrays.equals(read.getValues(), snapshot.getValues())) {
+      fail(name + ": the values differ");
+    }
+  }
+
+  /**
+   * a flipped payload byte, a flipped magic number, a cut off file and a file that is
+   * not a snapshot all have to be rejected
+   */
+  private static void checkDamage(File dir, Random random) throws IOException {
+    double[] values = new double[3 * 500];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextDouble();
+    }
+    File f = new File(dir, "damaged");
+    new RankSnapshot(17L, new double[] { 0.85, 1.0, 1e-8 }, 500, values).write(f.getPath());
+    byte[] good = Files.readAllBytes(f.toPath());
+
+    // the checksum covers the vectors at the end of the file
+    int payload = good.length - 8 * values.length;
+    for (int round = 0; round < 50; round++) {
+      byte[] bad = good.clone();
+      int at = payload + random.nextInt(bad.length - payload);
+      bad[at] ^= (byte) (1 << random.nextInt(8));
+      expectRejected("payload byte " + at, f, bad);
+    }
+    byte[] bad = good.clone();
+    bad[0] ^= 1;
+    expectRejected("magic", f, bad);
+    expectRejected("truncated", f, Arrays.copyOf(good, good.length - 8));
+    expectRejected("text", f, "1 2\n2 1\n".getBytes("US-ASCII"));
+  }
+
+  private static void expectRejected(String name, File f, byte[] bytes) throws IOException {
+    Files.write(f.toPath(), bytes);
+    try {
+      RankSnapshot.read(f.getPath());
+      fail(name + ": read without an error");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static void checkMatch() {
+    double[] params = { 0.75, 0.15 };
+    double[] accuracy = { 1.0, 1e-8 };
+    RankSnapshot snapshot = new RankSnapshot(42L, new double[] { 0.75, 0.15, 1.0, 1e-8 }, 10, new double[30]);
+
+    expect("same input", snapshot.match(42L, params, accuracy, 10, 3), RankSnapshot.Match.EXACT);
+    expect("other graph", snapshot.match(43L, params, accuracy, 10, 3), RankSnapshot.Match.WARM_START);
+    expect("other tolerance", snapshot.match(42L, params, new double[] { 1.0, 1e-10 }, 10, 3), RankSnapshot.Match.WARM_START);
+    expect("other norm", snapshot.match(42L, params, new double[] { 2.0, 1e-8 }, 10, 3), RankSnapshot.Match.WARM_START);
+    expect("NaN tolerance", snapshot.match(42L, params, new double[] { 1.0, Double.NaN }, 10, 3), RankSnapshot.Match.WARM_START);
+    expect("other dimension", snapshot.match(42L, params, accuracy, 11, 3), RankSnapshot.Match.NONE);
+    expect("other vector count", snapshot.match(42L, params, accuracy, 10, 2), RankSnapshot.Match.NONE);
+    expect("other model", snapshot.match(42L, new double[] { 0.75, 0.2 }, accuracy, 10, 3), RankSnapshot.Match.NONE);
+    expect("fewer parameters", snapshot.match(42L, new double[] { 0.75 }, accuracy, 10, 3), RankSnapshot.Match.NONE);
+    expect("no criterion", snapshot.match(42L, params, new double[0], 10, 3), RankSnapshot.Match.NONE);
+  }
+
+  private static void expect(String name, RankSnapshot.Match actual, RankSnapshot.Match expected) {
+    if (actual != expected) {
+      fail(name + ": " + actual + ", expected " + expected);
+    }
+  }
+
+  private static void fail(String message) {
+    if (failures < 20) System.out.println(message);
+    failures++;
+  }
+}
@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that ResultListPipeline writes the same bytes as a sequential loop over the
+ * lists in the order of the user-query ids, which reads each one into a CandidateList,
+ * scores it and writes its ranking, as the mains did before the pipeline. Documents
+ * that tie keep their order in the list. Random result lists with many ties are
+ * re-ranked with the global and the topic vectors, by every method and with several
+ * reader and scorer counts. Exits with status 1 if an output differs.
+ *
+ * usage: java -cp out ResultListPipelineCheck
+ */
+public class ResultListPipelineCheck {
+  private static final int TOPICS = 3;
+
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(25);
+    int d = 2000;
+    File dir = Files.createTempDirectory("lists").toFile();
+
+    // user-queries whose ids sort differently as text and as numbers
+    List<File> files = new ArrayList<File>();
+    Map<String, List<Double>> dist = new HashMap<String, List<Double>>();
+    String[] ids = { "2-1", "2-9", "2-10", "10-1", "3-2", "3-02", "9-100" };
+    for (String id : ids) {
+      files.add(writeResultList(new File(dir, id + ".results.txt"), id, d, 1 + random.nextInt(600), random));
+      List<Double> weights = new ArrayList<Double>();
+      for (int t = 0; t < TOPICS; t++) {
+        weights.add(random.nextDouble());
+      }
+      dist.put(id, weights);
+    }
+    // an empty list
+    File empty = new File(dir, "4-4.results.txt");
+    empty.createNewFile();
+    files.add(empty);
+    dist.put("4-4", dist.get("2-1"));
+    Collections.shuffle(files, random);
+
+    // few distinct scores, so that many documents tie on their pagerank
+    double[] global = new double[d];
+    List<RankVector> topics = new ArrayList<RankVector>();
+    for (int i = 0; i < d; i++) {
+      global[i] = random.nextInt(20) / 1000.0;
+    }
+    for (int t = 0; t < TOPICS; t++) {
+      double[] values = new double[d];
+      for (int i = 0; i < d; i++) {
+        values[i] = random.nextInt(5) == 0 ? 0.0 : random.nextDouble() / d;
+      }
+      topics.add(new RankVector(values));
+    }
+
+    ReRanker[] rerankers = { new ReRanker(new RankVector(global)), new ReRanker(topics, dist) };
+    String[] names = { "global", "topics" };
+    File[] input = files.toArray(new File[files.size()]);
+    for (int r = 0; r < rerankers.length; r++) {
+      for (int method = 1; method <= 3; method++) {
+        byte[] expected = sequential(rerankers[r], method, input);
+        int[][] shapes = { { 1, 1, 2 }, { 1, 3, 4 }, { 3, 1, 4 }, { 2, 2, 16 }, { 4, 4, 8 } };
+        for (int[] shape : shapes) {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          int written = new ResultListPipeline(rerankers[r], method, shape[0], shape[1], shape[2]).run(input, out, null);
+          String name = names[r] + ", method " + method + ", " + shape[0] + " readers, " + shape[1] + " scorers, " + shape[2] + " jobs";
+          if (written != input.length) {
+            fail(name + ": " + written + " files written, expected " + input.length);
+          }
+          if (!Arrays.equals(out.toByteArray(), expected)) {
+            fail(name + ": the output differs from the sequential loop");
+          }
+        }
+      }
+    }
+
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("ResultListPipelineCheck passed");
+  }
+
+  /**
+   * the re-ranking of the mains before the pipeline, on one thread
+   */
+  private static byte[] sequential(ReRanker reranker, int method, File[] files) throws IOException {
+    File[] sorted = files.clone();
+    Arrays.sort(sorted, new Comparator<File>() {
+
+      @Override
+      public int compare(File a, File b) {
+        int res = ResultListPipeline.compareUserQueryIds(ReRanker.getUserQueryId(a), ReRanker.getUserQueryId(b));
+        return res != 0 ? res : a.getName().compareTo(b.getName());
+      }
+
+    });
+    StringBuilder out = new StringBuilder();
+    ByteTokenizer tokenizer = new ByteTokenizer();
+    for (File f : sorted) {
+      String userqueryid = ReRanker.getUserQueryId(f);
+      CandidateList candidates = new CandidateList();
+      candidates.read(new FileInputStream(f), tokenizer);
+      reranker.score(userqueryid, candidates, method);
+      ReRanker.writeRanking(userqueryid, candidates, candidates.top(0, candidates.size()), 0, out);
+    }
+    return out.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * a result list of distinct documents with negative retrieval scores, some of them
+   * equal, best first as indri writes them
+   */
+  private static File writeResultList(File f, String userqueryid, int d, int n, Random random) throws IOException {
+    List<Integer> docs = new ArrayList<Integer>();
+    for (int i = 1; i <= d; i++) {
+      docs.add(i);
+    }
+    Collections.shuffle(docs, random);
+    double[] scores = new double[n];
+    for (int i = 0; i < n; i++) {
+      scores[i] = random.nextInt(4) == 0 ? -5.0 : -random.nextDouble() * 10.0;
+    }
+    Arrays.sort(scores);
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+    for (int i = 0; i < n; i++) {
+      out.println(userqueryid + " Q0 " + docs.get(i) + " " + (i + 1) + " " + scores[n - 1 - i] + " indri");
+    }
+    out.close();
+    return f;
+  }
+
+  private static void fail(String message) {
+    if (failures < 20) System.out.println(message);
+    failures++;
+  }
+}
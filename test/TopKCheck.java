@@ -0,0 +1,84 @@
+import java.util.*;
+
+/**
+ * Checks TopK.select() against a stable sort of the indices by decreasing value, on
+ * random values, values with many ties, empty pages and pages past the end. Exits with
+ * status 1 if a page does not match.
+ *
+ * usage: java -cp out TopKCheck
+ */
+public class TopKCheck {
+  private static int failures = 0;
+
+  public static void main(String[] args) {
+    Random random = new Random(11);
+    for (int round = 0; round < 5000; round++) {
+      int n = random.nextInt(round % 10 == 0 ? 2000 : 60);
+      double[] values = new double[n + random.nextInt(3)];
+      boolean ties = random.nextBoolean();
+      for (int i = 0; i < values.length; i++) {
+        // a few distinct values, with 0.0 and -0.0 equal, or mostly distinct ones
+        values[i] = ties ? random.nextInt(4) : random.nextGaussian();
+        if (values[i] == 0.0 && random.nextBoolean()) values[i] = -0.0;
+      }
+      check(values, n, random.nextInt(n + 3), random.nextInt(n + 3));
+      check(values, n, 0, n);
+      check(values, n, random.nextInt(n + 1), 0);
+      check(values, n, n + random.nextInt(3), 1 + random.nextInt(3));
+    }
+
+    // the overloads over a whole array and over a vector
+    double[] values = { 0.5, 0.25, 0.5, 1.0, 0.25 };
+    expect("array", TopK.select(values, 1, 3), new int[] { 0, 2, 1 });
+    expect("vector", TopK.select(new RankVector(values), 1, 3), new int[] { 0, 2, 1 });
+
+    for (int[] bad : new int[][] { { -1, 1 }, { 0, -1 } }) {
+      try {
+        TopK.select(values, bad[0], bad[1]);
+        fail("offset " + bad[0] + ", k " + bad[1] + " accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+    System.out.println("TopKCheck passed");
+  }
+
+  private static void check(final double[] values, int n, int offset, int k) {
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    // a stable sort by decreasing value keeps equal values in index order
+    Arrays.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer a, Integer b) {
+        return values[a] > values[b] ? -1 : values[a] < values[b] ? 1 : 0;
+      }
+
+    });
+    int from = Math.min(offset, n);
+    int to = (int) Math.min((long) offset + k, n);
+    int[] expected = new int[to - from];
+    for (int i = from; i < to; i++) {
+      expected[i - from] = order[i];
+    }
+    expect("n " + n + ", offset " + offset + ", k " + k, TopK.select(values, n, offset, k), expected);
+  }
+
+  private static void expect(String name, int[] actual, int[] expected) {
+    if (!Arrays.equals(actual, expected)) {
+      fail(name + ": " + Arrays.toString(actual) + ", expected " + Arrays.toString(expected));
+    }
+  }
+
+  private static void fail(String message) {
+    if (failures < 20) System.out.println(message);
+    failures++;
+  }
+}